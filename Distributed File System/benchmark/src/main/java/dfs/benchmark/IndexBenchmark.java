@@ -0,0 +1,217 @@
+package dfs.benchmark;
+
+import dfs.controller.Index;
+import dfs.controller.IndexLog;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the index operations on the path of every client request, on one index shared by every
+ * benchmark thread. The index holds the given amount of files spread over the given DStores, and
+ * logs its changes to a write-ahead log when indexLog is true, so storeThenRemove includes waiting
+ * for its records to be forced to disk. The recover benchmark replays the write-ahead log of all
+ * the files, as a restarted Controller does. Run with -t 1, -t 4 and so on to see contention
+ * between requests, and with for example -p files=10000000 -p dstores=200 -jvmArgs -Xmx8g for an
+ * index at scale:
+ *
+ * <pre>
+ *   java -cp dfs-benchmark-1.0.0-SNAPSHOT-all.jar org.openjdk.jmh.Main IndexBenchmark -t 4
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Ddfs.log.level=WARN")
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+    /** Amount of files stored before measuring */
+    @Param("10000")
+    public int files;
+
+    /** Amount of DStores the files are placed on */
+    @Param("10")
+    public int dstores;
+
+    /** Replication factor */
+    @Param("3")
+    public int replication;
+
+    /** Whether the index logs its changes to a write-ahead log */
+    @Param("false")
+    public boolean indexLog;
+
+    /** Index being measured */
+    private Index index;
+
+    /** Names of the stored files */
+    private String[] filenames;
+
+    /** Numbers new file names, unique across threads */
+    private final AtomicLong nextFile = new AtomicLong();
+
+    /** Folder of the write-ahead log, null if the index has none */
+    private Path logDirectory;
+
+    /**
+     * Creates the index and stores the files
+     *
+     * @throws IOException if the write-ahead log cannot be opened
+     */
+    @Setup
+    public void createIndex() throws IOException {
+        index = new Index();
+        if (indexLog) {
+            logDirectory = Files.createTempDirectory("dfs-index-bench");
+            index.openLog(logDirectory);
+        }
+        filenames = storeFiles(index, files, dstores, replication);
+    }
+
+    /**
+     * Deletes the write-ahead log
+     *
+     * @throws IOException if the log cannot be deleted
+     */
+    @TearDown
+    public void deleteLog() throws IOException {
+        if (logDirectory != null) {
+            deleteDirectory(logDirectory);
+        }
+    }
+
+    /**
+     * STORE followed by REMOVE of a new file, as the Controller runs them
+     *
+     * @return whether the file was removed
+     */
+    @Benchmark
+    public boolean storeThenRemove() {
+        String filename = "new" + nextFile.incrementAndGet() + ".bin";
+        index.beginStore(filename);
+        index.placeFile(filename, 1024, replication);
+        index.completeStore(filename);
+        index.beginRemove(filename);
+        return index.completeRemove(filename);
+    }
+
+    /**
+     * Lookup of the replicas a LOAD chooses from
+     *
+     * @return ports of the DStores with a random file
+     */
+    @Benchmark
+    public ArrayList<Integer> load() {
+        String filename = filenames[ThreadLocalRandom.current().nextInt(filenames.length)];
+        return index.isAvailable(filename) ? index.getPortsWithFile(filename) : null;
+    }
+
+    /**
+     * LIST of every file
+     *
+     * @return LIST reply
+     */
+    @Benchmark
+    public String list() {
+        return index.getAllFiles();
+    }
+
+    /**
+     * Replays the write-ahead log of all the files
+     *
+     * @param log log to replay
+     * @return amount of records replayed
+     * @throws IOException if the log cannot be read
+     */
+    @Benchmark
+    public long recover(RecoveryLog log) throws IOException {
+        return new IndexLog(log.directory).recover(record -> { });
+    }
+
+    /** The write-ahead log of an index holding stored files, written once for the recover benchmark */
+    @State(Scope.Benchmark)
+    public static class RecoveryLog {
+
+        /** Folder of the log */
+        private Path directory;
+
+        /**
+         * Writes the log of the files of the benchmark
+         *
+         * @param benchmark benchmark giving the amount of files and DStores
+         * @throws IOException if the log cannot be written
+         */
+        @Setup
+        public void writeLog(IndexBenchmark benchmark) throws IOException {
+            directory = Files.createTempDirectory("dfs-index-recovery");
+            Index logged = new Index();
+            logged.openLog(directory);
+            storeFiles(logged, benchmark.files, benchmark.dstores, benchmark.replication);
+        }
+
+        /**
+         * Deletes the log
+         *
+         * @throws IOException if the log cannot be deleted
+         */
+        @TearDown
+        public void deleteLog() throws IOException {
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Adds DStores to an index and stores files on them
+     *
+     * @param index index
+     * @param files amount of files
+     * @param dstores amount of DStores
+     * @param replication replication factor
+     * @return names of the files
+     */
+    private static String[] storeFiles(Index index, int files, int dstores, int replication) {
+        for (int port = 1; port <= dstores; port++) {
+            index.addFiles(port, Map.of());
+        }
+
+        String[] filenames = new String[files];
+        for (int i = 0; i < files; i++) {
+            filenames[i] = "file" + i + ".bin";
+            index.beginStore(filenames[i]);
+            index.placeFile(filenames[i], 1024, replication);
+            index.completeStore(filenames[i]);
+        }
+        return filenames;
+    }
+
+    /**
+     * Deletes a folder and everything in it
+     *
+     * @param directory folder
+     * @throws IOException if the folder cannot be listed
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,878 @@
+package dfs.benchmark;
+
+import dfs.client.ChainStorer;
+import dfs.client.ParallelLoader;
+import dfs.protocol.BinaryProtocol;
+import dfs.protocol.HandlerThreads;
+import dfs.protocol.LatencyHistogram;
+import dfs.protocol.Log;
+import dfs.protocol.Protocol;
+import dfs.protocol.Request;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a mix of requests from many clients at once and reports the throughput, bandwidth and
+ * latency percentiles of every operation, then the peak heap, RSS and threads of this JVM. A
+ * cluster is started in this JVM unless the port of a running Controller is given, so the peaks
+ * include the Controller and DStores. Before measuring, every client stores bench.files files,
+ * which together make up the catalog every client loads from. Files stored while measuring belong
+ * to the client which stored them and are the only ones removed. Configured with system
+ * properties:
+ *
+ * <pre>
+ *   bench.cport        port of a running Controller, a cluster is started if not set
+ *   bench.port         port of the Controller to start, DStores use the ports after it (21000)
+ *   bench.dstores      amount of DStores to start (3)
+ *   bench.replication  replication factor (2)
+ *   bench.timeout      timeout in milliseconds of the cluster and the clients (2000)
+ *   bench.clients      amount of clients, each with its own connection (8)
+ *   bench.files        files every client stores before measuring starts (10)
+ *   bench.warmup       seconds run before measuring (2)
+ *   bench.duration     seconds measured (10)
+ *   bench.mix          weights of the operations (store:20,load:70,remove:10)
+ *   bench.sizes        weights of file sizes in bytes, up to any long (1024:80,65536:15,1048576:5)
+ *   bench.skew         Zipf exponent of the popularity of catalog files, 0 for uniform (0)
+ *   bench.protocol     framing of requests to the Controller, text or binary (text)
+ *   bench.pipeline     locate and list requests each client keeps in flight, with request IDs (1)
+ *   bench.connections  idle connections held open to the Controller while measuring (0)
+ *   bench.chunkSize    bytes per chunk of a parallelLoad (4194304)
+ * </pre>
+ *
+ * The operations are
+ *
+ * <pre>
+ *   store         STORE, sending the file to every DStore
+ *   load          LOAD, reading the file from the DStore chosen
+ *   remove        REMOVE of a file stored while measuring
+ *   locate        LOAD without reading the file, only the Controller's part of a load
+ *   list          LIST
+ *   connect       new connection, LIST and close, measuring accept latency
+ *   chainStore    STORE through ChainStorer, sending the file once along a chain of DStores
+ *   parallelLoad  load through ParallelLoader, reading chunks from every replica at once
+ * </pre>
+ *
+ * Clients run on virtual threads when started with -Ddfs.threads=virtual, as the servers do, so
+ * tens of thousands of clients need no more platform threads than the JVM has carriers. For
+ * example, accept latency past 10k connections, and the effect of the popularity skew on loads:
+ *
+ * <pre>
+ *   -Dbench.connections=10000 -Dbench.mix=connect:1,locate:9
+ *   -Dbench.skew=1.2 -Dbench.mix=load:1 -Dbench.dstores=6 -Dbench.replication=3
+ * </pre>
+ */
+public class LoadGenerator {
+
+    /** Operations in the order they are reported */
+    private static final String[] OPERATIONS =
+            {"store", "load", "remove", "locate", "list", "connect", "chainStore", "parallelLoad"};
+
+    /** Bytes written or read at a time */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Port of the Controller */
+    private final int cport;
+
+    /** Milliseconds to wait for any reply */
+    private final int timeout;
+
+    /** Whether requests to the Controller are framed with the binary protocol */
+    private final boolean binary;
+
+    /** Locate and list requests every client keeps in flight */
+    private final int pipeline;
+
+    /** Zipf exponent of the popularity of catalog files, 0 for uniform */
+    private final double skew;
+
+    /** Bytes per chunk of a parallelLoad */
+    private final long chunkSize;
+
+    /** Weights of the operations, in the order of OPERATIONS */
+    private final int[] mix;
+
+    /** File sizes to choose from */
+    private final long[] sizes;
+
+    /** Weights of the file sizes, in the same order */
+    private final int[] sizeWeights;
+
+    /** Content sent over and over to make up files of any size */
+    private final byte[] content = new byte[BUFFER_SIZE];
+
+    /** Folder holding the local files of chainStore and parallelLoad */
+    private final Path scratch;
+
+    /** Operation -> latency of the operations completed while measuring */
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+
+    /** Operation -> operations failed while measuring */
+    private final Map<String, LongAdder> errors = new LinkedHashMap<>();
+
+    /** Operation -> bytes of files sent or received while measuring */
+    private final Map<String, LongAdder> bytes = new LinkedHashMap<>();
+
+    /** Files stored by the clients before measuring, collected as they are stored */
+    private final ConcurrentLinkedQueue<String> storedCatalog = new ConcurrentLinkedQueue<>();
+
+    /** Files every client loads from, fixed once every client has stored its files */
+    private volatile String[] catalog = new String[0];
+
+    /** Cumulative probability of every rank of the catalog, null if files are equally popular */
+    private volatile double[] popularity;
+
+    /** Whether operations are being measured */
+    private volatile boolean measuring = false;
+
+    /** Whether clients should keep going */
+    private volatile boolean running = true;
+
+    /** Largest heap used while running, in bytes */
+    private volatile long peakHeap = 0;
+
+    /**
+     * Creates a generator
+     *
+     * @param cport port of the Controller
+     * @param timeout milliseconds to wait for any reply
+     * @param mix weights of the operations, such as "store:20,load:70,remove:10"
+     * @param sizes weights of file sizes in bytes, such as "1024:80,1048576:20"
+     * @param binary whether to frame requests with the binary protocol
+     * @param pipeline locate and list requests every client keeps in flight
+     * @param skew Zipf exponent of the popularity of catalog files, 0 for uniform
+     * @param chunkSize bytes per chunk of a parallelLoad
+     * @throws IOException if the scratch folder cannot be created
+     */
+    public LoadGenerator(int cport, int timeout, String mix, String sizes, boolean binary, int pipeline,
+            double skew, long chunkSize) throws IOException {
+        this.cport = cport;
+        this.timeout = timeout;
+        this.binary = binary;
+        this.pipeline = Math.max(1, pipeline);
+        this.skew = skew;
+        this.chunkSize = chunkSize;
+
+        Map<String, Integer> operationWeights = parseWeights(mix);
+        this.mix = new int[OPERATIONS.length];
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            this.mix[i] = operationWeights.getOrDefault(OPERATIONS[i], 0);
+            latencies.put(OPERATIONS[i], new LatencyHistogram());
+            errors.put(OPERATIONS[i], new LongAdder());
+            bytes.put(OPERATIONS[i], new LongAdder());
+        }
+
+        Map<String, Integer> sizeWeights = parseWeights(sizes);
+        this.sizes = new long[sizeWeights.size()];
+        this.sizeWeights = new int[sizeWeights.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : sizeWeights.entrySet()) {
+            this.sizes[i] = Long.parseLong(entry.getKey());
+            this.sizeWeights[i++] = entry.getValue();
+        }
+        ThreadLocalRandom.current().nextBytes(content);
+
+        scratch = Files.createTempDirectory("dfs-bench");
+        Runtime.getRuntime().addShutdownHook(new Thread(this::deleteScratch));
+    }
+
+    /**
+     * Parses weights such as "store:20,load:70"
+     *
+     * @param weights comma separated name:weight pairs
+     * @return name -> weight, in the given order
+     */
+    private static Map<String, Integer> parseWeights(String weights) {
+        LinkedHashMap<String, Integer> parsed = new LinkedHashMap<>();
+        for (String pair : weights.split(",")) {
+            String[] nameAndWeight = pair.trim().split(":");
+            parsed.put(nameAndWeight[0], Integer.parseInt(nameAndWeight[1]));
+        }
+        return parsed;
+    }
+
+    /**
+     * Chooses an index with probability proportional to its weight
+     *
+     * @param weights weights
+     * @return index
+     */
+    private static int choose(int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int pick = ThreadLocalRandom.current().nextInt(Math.max(1, total));
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Fixes the catalog once every client has stored its files, and works out the popularity of
+     * each file if the popularity is skewed. The file of rank k is loaded with a probability
+     * proportional to 1 / k^skew
+     */
+    private void fixCatalog() {
+        String[] files = storedCatalog.toArray(new String[0]);
+        if (skew > 0 && files.length > 0) {
+            double[] cumulative = new double[files.length];
+            double total = 0;
+            for (int rank = 0; rank < files.length; rank++) {
+                total += 1 / Math.pow(rank + 1, skew);
+                cumulative[rank] = total;
+            }
+            for (int rank = 0; rank < files.length; rank++) {
+                cumulative[rank] /= total;
+            }
+            popularity = cumulative;
+        }
+        catalog = files;
+    }
+
+    /**
+     * Chooses a catalog file to load, by popularity
+     *
+     * @return filename
+     */
+    private String chooseCatalogFile() {
+        String[] files = catalog;
+        double[] cumulative = popularity;
+        if (cumulative == null) {
+            return files[ThreadLocalRandom.current().nextInt(files.length)];
+        }
+        int rank = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        return files[Math.min(files.length - 1, rank < 0 ? -rank - 1 : rank)];
+    }
+
+    /**
+     * Runs the clients, then prints a report
+     *
+     * @param clients amount of clients
+     * @param files files every client stores before measuring starts
+     * @param warmupSeconds seconds run before measuring
+     * @param durationSeconds seconds measured
+     * @param connections idle connections held open to the Controller while running
+     */
+    public void run(int clients, int files, int warmupSeconds, int durationSeconds, int connections)
+            throws InterruptedException {
+        List<Socket> idle = openIdleConnections(connections);
+
+        ExecutorService threads = HandlerThreads.newExecutor("client");
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        for (int i = 0; i < clients; i++) {
+            int client = i;
+            threads.execute(() -> runClient(client, files, ready, go));
+        }
+        ready.await();
+        fixCatalog();
+        System.out.println("Stored a catalog of " + catalog.length + " files");
+
+        Thread sampler = new Thread(this::sampleHeap, "heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        go.countDown();
+
+        Thread.sleep(warmupSeconds * 1000L);
+        measuring = true;
+        long startTime = System.nanoTime();
+        Thread.sleep(durationSeconds * 1000L);
+        measuring = false;
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        running = false;
+        threads.shutdown();
+        threads.awaitTermination(timeout * 4L, TimeUnit.MILLISECONDS);
+
+        System.out.printf("%-13s %10s %10s %10s %10s %10s %10s %10s %8s%n",
+                "op", "count", "ops/s", "MB/s", "p50_us", "p99_us", "p999_us", "max_us", "errors");
+        long total = 0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            String operation = OPERATIONS[i];
+            LatencyHistogram latency = latencies.get(operation);
+            if (mix[i] == 0 && latency.getCount() == 0) {
+                continue;
+            }
+            total += latency.getCount();
+            System.out.printf("%-13s %10d %10.0f %10.1f %10d %10d %10d %10d %8d%n", operation, latency.getCount(),
+                    latency.getCount() / seconds, bytes.get(operation).sum() / seconds / (1024 * 1024),
+                    latency.getPercentile(0.5), latency.getPercentile(0.99), latency.getPercentile(0.999),
+                    latency.getPercentile(1), errors.get(operation).sum());
+        }
+        System.out.printf("%-13s %10d %10.0f%n", "total", total, total / seconds);
+        System.out.printf("peak heap %.1f MB, peak RSS %s, peak threads %d, %s handler threads, %d idle connections%n",
+                peakHeap / (1024.0 * 1024), readPeakRss(), ManagementFactory.getThreadMXBean().getPeakThreadCount(),
+                HandlerThreads.isVirtual() ? "virtual" : "platform", idle.size());
+
+        for (Socket socket : idle) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    /**
+     * Opens connections to the Controller which send nothing, so the clients are measured while
+     * the Controller holds them all. Stops at the first connection which cannot be opened
+     *
+     * @param connections amount of connections
+     * @return connections opened
+     */
+    private List<Socket> openIdleConnections(int connections) {
+        ArrayList<Socket> idle = new ArrayList<>(connections);
+        try {
+            while (idle.size() < connections) {
+                idle.add(new Socket(InetAddress.getLoopbackAddress(), cport));
+            }
+        } catch (IOException e) {
+            Log.warn("Opened only {} idle connections", idle.size(), e);
+        }
+        if (connections > 0) {
+            System.out.println("Holding " + idle.size() + " idle connections");
+        }
+        return idle;
+    }
+
+    /** Records the largest heap used, until the clients stop */
+    private void sampleHeap() {
+        while (running) {
+            peakHeap = Math.max(peakHeap, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the peak resident set size of this process
+     *
+     * @return size such as "512 MB", or "unknown" where /proc is not available
+     */
+    private static String readPeakRss() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    String[] fields = Request.split(line);
+                    return Long.parseLong(fields[1]) / 1024 + " MB";
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Not Linux
+        }
+        return "unknown";
+    }
+
+    /** A request sent ahead of its reply */
+    private static final class Pending {
+
+        /** Operation of the request */
+        private final String operation;
+
+        /** System.nanoTime() when the request was sent */
+        private final long startTime;
+
+        /** Whether the request was sent while measuring */
+        private final boolean measured;
+
+        Pending(String operation, long startTime, boolean measured) {
+            this.operation = operation;
+            this.startTime = startTime;
+            this.measured = measured;
+        }
+    }
+
+    /**
+     * Runs one client until told to stop. The client stores its share of the catalog, waits for
+     * every other client to do the same, then runs operations chosen from the mix
+     *
+     * @param client number of the client
+     * @param files files to store before measuring starts
+     * @param ready counted down once the files are stored
+     * @param go waited for before running operations
+     */
+    private void runClient(int client, int files, CountDownLatch ready, CountDownLatch go) {
+        ControllerClient controller = null;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int nextFile = 0;
+        try {
+            controller = new ControllerClient();
+            for (int i = 0; i < files; i++) {
+                String filename = "c" + client + "-" + nextFile++;
+                if (store(controller, filename, chooseSize()) > 0) {
+                    storedCatalog.add(filename);
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Client {} could not store its files", client, e);
+        } finally {
+            ready.countDown();
+        }
+
+        try {
+            go.await();
+        } catch (InterruptedException e) {
+            return;
+        }
+        if (controller == null) {
+            return;
+        }
+
+        ArrayList<String> stored = new ArrayList<>();
+        HashMap<Integer, Pending> pending = new HashMap<>();
+        try (ControllerClient connection = controller) {
+            while (running) {
+                String operation = OPERATIONS[choose(mix)];
+                if (operation.equals("remove") && stored.isEmpty()) {
+                    operation = "store";
+                } else if (catalog.length == 0 && (operation.equals("load") || operation.equals("locate")
+                        || operation.equals("parallelLoad"))) {
+                    operation = "store";
+                }
+
+                // Locates and lists are sent ahead while the window allows, everything else waits for them
+                boolean pipelined = pipeline > 1 && (operation.equals("locate") || operation.equals("list"));
+                while (!pending.isEmpty() && (!pipelined || pending.size() >= pipeline)) {
+                    completePending(connection, pending);
+                }
+                if (pipelined) {
+                    int id = connection.nextId();
+                    pending.put(id, new Pending(operation, System.nanoTime(), measuring));
+                    connection.send(id, controlMessage(operation));
+                    continue;
+                }
+
+                boolean measured = measuring;
+                long startTime = System.nanoTime();
+                long moved;
+                switch (operation) {
+                    case "store":
+                    case "chainStore":
+                        String filename = "c" + client + "-" + nextFile++;
+                        moved = operation.equals("store")
+                                ? store(connection, filename, chooseSize())
+                                : chainStore(client, filename, chooseSize());
+                        if (moved > 0) {
+                            stored.add(filename);
+                        }
+                        break;
+                    case "load":
+                        moved = load(connection, chooseCatalogFile(), buffer);
+                        break;
+                    case "parallelLoad":
+                        moved = parallelLoad(client, chooseCatalogFile());
+                        break;
+                    case "remove":
+                        int index = ThreadLocalRandom.current().nextInt(stored.size());
+                        moved = remove(connection, stored.get(index)) ? 0 : -1;
+                        stored.set(index, stored.get(stored.size() - 1));
+                        stored.remove(stored.size() - 1);
+                        break;
+                    case "connect":
+                        moved = connect() ? 0 : -1;
+                        break;
+                    default:
+                        connection.send(0, controlMessage(operation));
+                        moved = isControlReply(operation, connection.receive()) ? 0 : -1;
+                        break;
+                }
+                record(operation, measured, startTime, moved);
+            }
+        } catch (IOException e) {
+            if (running) {
+                Log.error("Client {} stopped", client, e);
+            }
+        }
+    }
+
+    /**
+     * Records the end of an operation, if it was measured from start to end
+     *
+     * @param operation operation
+     * @param measured whether measuring had started when the operation started
+     * @param startTime System.nanoTime() when the operation started
+     * @param moved bytes of files sent or received, negative if the operation failed
+     */
+    private void record(String operation, boolean measured, long startTime, long moved) {
+        if (!measured || !measuring) {
+            return;
+        }
+        if (moved < 0) {
+            errors.get(operation).increment();
+        } else {
+            latencies.get(operation).record(System.nanoTime() - startTime);
+            bytes.get(operation).add(moved);
+        }
+    }
+
+    /**
+     * Reads the reply to a request sent ahead and records it
+     *
+     * @param connection connection to the Controller
+     * @param pending request ID -> request waiting for its reply
+     * @throws IOException if the connection fails or the reply is to no waiting request
+     */
+    private void completePending(ControllerClient connection, Map<Integer, Pending> pending) throws IOException {
+        Request reply = connection.receive();
+        Pending request = pending.remove(reply.getId());
+        if (request == null) {
+            throw new IOException("Reply to no waiting request: " + reply);
+        }
+        record(request.operation, request.measured, request.startTime,
+                isControlReply(request.operation, reply) ? 0 : -1);
+    }
+
+    /**
+     * Creates the request of a locate or list
+     *
+     * @param operation locate or list
+     * @return request
+     */
+    private String controlMessage(String operation) {
+        return operation.equals("list") ? Protocol.LIST_TOKEN : Protocol.LOAD_TOKEN + " " + chooseCatalogFile();
+    }
+
+    /**
+     * Checks if a reply is the success of a locate or list
+     *
+     * @param operation locate or list
+     * @param reply reply
+     * @return boolean
+     */
+    private static boolean isControlReply(String operation, Request reply) {
+        return reply.getCommand().equals(operation.equals("list") ? Protocol.LIST_TOKEN : Protocol.LOAD_FROM_TOKEN);
+    }
+
+    /**
+     * Chooses the size of a new file
+     *
+     * @return size in bytes
+     */
+    private long chooseSize() {
+        return sizes[choose(sizeWeights)];
+    }
+
+    /**
+     * Stores a file on every DStore the Controller chooses
+     *
+     * @param controller connection to the Controller
+     * @param filename name of file
+     * @param size size of file
+     * @return bytes sent, -1 if the store failed
+     * @throws IOException if the connection to the Controller fails
+     */
+    private long store(ControllerClient controller, String filename, long size) throws IOException {
+        controller.send(0, Protocol.STORE_TOKEN + " " + filename + " " + size);
+        Request reply = controller.receive();
+        if (reply.getFieldCount() < 2 || !reply.getCommand().equals(Protocol.STORE_TO_TOKEN)) {
+            return -1;
+        }
+
+        long sent = 0;
+        for (int i = 1; i < reply.getFieldCount(); i++) {
+            try (Socket dstore = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(reply.getField(i)))) {
+                dstore.setSoTimeout(timeout);
+                PrintWriter dstoreWriter = new PrintWriter(dstore.getOutputStream(), true);
+                BufferedReader dstoreReader = new BufferedReader(new InputStreamReader(dstore.getInputStream()));
+                dstoreWriter.println(Protocol.STORE_TOKEN + " " + filename + " " + size);
+                if (!Protocol.ACK_TOKEN.equals(dstoreReader.readLine())) {
+                    return -1;
+                }
+                OutputStream out = dstore.getOutputStream();
+                for (long left = size; left > 0; left -= BUFFER_SIZE) {
+                    out.write(content, 0, (int) Math.min(left, BUFFER_SIZE));
+                }
+                out.flush();
+                sent += size;
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        return Protocol.STORE_COMPLETE_TOKEN.equals(controller.receive().getCommand()) ? sent : -1;
+    }
+
+    /**
+     * Loads a file from the DStore the Controller chooses, reading all of its content
+     *
+     * @param controller connection to the Controller
+     * @param filename name of file
+     * @param buffer buffer to read into
+     * @return bytes received, -1 if the load failed
+     * @throws IOException if the connection to the Controller fails
+     */
+    private long load(ControllerClient controller, String filename, byte[] buffer) throws IOException {
+        controller.send(0, Protocol.LOAD_TOKEN + " " + filename);
+        Request reply = controller.receive();
+        if (reply.getFieldCount() < 3 || !reply.getCommand().equals(Protocol.LOAD_FROM_TOKEN)) {
+            return -1;
+        }
+
+        long size = Long.parseLong(reply.getField(2));
+        try (Socket dstore = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(reply.getField(1)))) {
+            dstore.setSoTimeout(timeout);
+            new PrintWriter(dstore.getOutputStream(), true).println(Protocol.LOAD_DATA_TOKEN + " " + filename);
+            InputStream in = dstore.getInputStream();
+            long received = 0;
+            int read;
+            while (received < size && (read = in.read(buffer, 0, (int) Math.min(buffer.length, size - received))) > 0) {
+                received += read;
+            }
+            return received == size ? size : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Removes a file
+     *
+     * @param controller connection to the Controller
+     * @param filename name of file
+     * @return false if the remove failed
+     * @throws IOException if the connection to the Controller fails
+     */
+    private boolean remove(ControllerClient controller, String filename) throws IOException {
+        controller.send(0, Protocol.REMOVE_TOKEN + " " + filename);
+        return Protocol.REMOVE_COMPLETE_TOKEN.equals(controller.receive().getCommand());
+    }
+
+    /**
+     * Opens a new connection, lists the files and closes it
+     *
+     * @return false if the list failed
+     */
+    private boolean connect() {
+        try (ControllerClient controller = new ControllerClient()) {
+            controller.send(0, Protocol.LIST_TOKEN);
+            return Protocol.LIST_TOKEN.equals(controller.receive().getCommand());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stores a file through ChainStorer. The file is a link, named as the file, to a sparse local
+     * file of the right size
+     *
+     * @param client number of the client
+     * @param filename name of file
+     * @param size size of file
+     * @return bytes sent, -1 if the store failed
+     */
+    private long chainStore(int client, String filename, long size) {
+        Path link = scratch.resolve("client" + client).resolve(filename);
+        try {
+            Files.createDirectories(link.getParent());
+            Files.createSymbolicLink(link, getSource(size));
+            new ChainStorer(cport, timeout).store(link);
+            return size;
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            try {
+                Files.deleteIfExists(link);
+            } catch (IOException e) {
+                // Left for the scratch folder to be deleted
+            }
+        }
+    }
+
+    /**
+     * Gets a sparse local file of a size, creating it the first time
+     *
+     * @param size size of file
+     * @return location of the file
+     * @throws IOException if the file cannot be created
+     */
+    private synchronized Path getSource(long size) throws IOException {
+        Path source = scratch.resolve("source-" + size);
+        if (!Files.exists(source)) {
+            try (RandomAccessFile file = new RandomAccessFile(source.toFile(), "rw")) {
+                file.setLength(size);
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Loads a file through ParallelLoader into a local file of the client
+     *
+     * @param client number of the client
+     * @param filename name of file
+     * @return bytes received, -1 if the load failed
+     */
+    private long parallelLoad(int client, String filename) {
+        try {
+            return new ParallelLoader(cport, timeout, chunkSize).load(filename, scratch.resolve("loaded" + client));
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /** Deletes the local files */
+    private void deleteScratch() {
+        try (var paths = Files.walk(scratch)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            Log.warn("Error in deleting {}", scratch, e);
+        }
+    }
+
+    /** A connection to the Controller, framed as text or binary, with request IDs when pipelining */
+    private final class ControllerClient implements Closeable {
+
+        private final Socket socket;
+
+        private final OutputStream out;
+
+        /** Reads text replies, null if binary */
+        private final BufferedReader reader;
+
+        /** Reads binary replies, null if text */
+        private final DataInputStream in;
+
+        /** Last request ID used */
+        private int lastId = 0;
+
+        ControllerClient() throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), cport);
+            socket.setSoTimeout(timeout * 2);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            if (binary) {
+                out.write(BinaryProtocol.MAGIC);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                reader = null;
+            } else {
+                reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                in = null;
+            }
+        }
+
+        /**
+         * Gets a new request ID
+         *
+         * @return ID, never 0
+         */
+        int nextId() {
+            lastId = lastId == Integer.MAX_VALUE ? 1 : lastId + 1;
+            return lastId;
+        }
+
+        /**
+         * Sends a request
+         *
+         * @param id request ID, 0 for none
+         * @param message request in the text protocol
+         * @throws IOException if the connection fails
+         */
+        void send(int id, String message) throws IOException {
+            if (binary) {
+                ByteBuffer frame = BinaryProtocol.encode(id, message);
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            } else {
+                out.write(((id == 0 ? "" : "#" + id + " ") + message + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        }
+
+        /**
+         * Reads the next reply
+         *
+         * @return reply
+         * @throws IOException if the connection fails or ends
+         */
+        Request receive() throws IOException {
+            Request reply = binary ? BinaryProtocol.read(in) : parse(reader.readLine());
+            if (reply == null) {
+                throw new EOFException("Controller closed the connection");
+            }
+            return reply;
+        }
+
+        /**
+         * Parses a text reply
+         *
+         * @param line reply, null at the end of the stream
+         * @return reply, null at the end of the stream
+         */
+        private Request parse(String line) {
+            return line == null ? null : Request.parse(line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Starts a cluster unless bench.cport is set, then runs the benchmark
+     *
+     * @param args unused, see the class comment for the system properties
+     */
+    public static void main(String[] args) throws Exception {
+        // Servers in this JVM would otherwise log every connection to the console being measured
+        if (System.getProperty("dfs.log.level") == null) {
+            System.setProperty("dfs.log.level", "WARN");
+        }
+
+        int timeout = Integer.getInteger("bench.timeout", 2000);
+        Integer cport = Integer.getInteger("bench.cport");
+        if (cport == null) {
+            int dstores = Integer.getInteger("bench.dstores", 3);
+            int replication = Integer.getInteger("bench.replication", 2);
+            LoopbackCluster cluster = new LoopbackCluster(Integer.getInteger("bench.port", 21000), dstores,
+                    replication, timeout);
+            cport = cluster.getControllerPort();
+            System.out.println("Started a Controller and " + dstores + " DStores with R=" + replication);
+        }
+
+        LoadGenerator generator = new LoadGenerator(cport, timeout,
+                System.getProperty("bench.mix", "store:20,load:70,remove:10"),
+                System.getProperty("bench.sizes", "1024:80,65536:15,1048576:5"),
+                "binary".equals(System.getProperty("bench.protocol")),
+                Integer.getInteger("bench.pipeline", 1),
+                Double.parseDouble(System.getProperty("bench.skew", "0")),
+                Long.getLong("bench.chunkSize", 4L * 1024 * 1024));
+        generator.run(Integer.getInteger("bench.clients", 8), Integer.getInteger("bench.files", 10),
+                Integer.getInteger("bench.warmup", 2), Integer.getInteger("bench.duration", 10),
+                Integer.getInteger("bench.connections", 0));
+        System.exit(0);
+    }
+}
@@ -0,0 +1,136 @@
+package dfs.benchmark;
+
+import dfs.controller.Controller;
+import dfs.dstore.Dstore;
+import dfs.protocol.Log;
+import dfs.protocol.Protocol;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Starts a Controller and DStores in this JVM, listening on loopback, with their file folders in a
+ * temporary directory. The servers have no way to stop, so they run until the JVM exits, when the
+ * folders are deleted
+ */
+public class LoopbackCluster {
+
+    /** Port the Controller listens on */
+    private final int cport;
+
+    /** Amount of DStores */
+    private final int dstoreCount;
+
+    /** Directory holding the file folders of the DStores */
+    private final Path directory;
+
+    /**
+     * Starts a cluster, returning once every DStore has joined the Controller
+     *
+     * @param cport port of the Controller, the DStores listen on the ports after it
+     * @param dstoreCount amount of DStores
+     * @param R replication factor
+     * @param timeout timeout in milliseconds of the Controller and DStores
+     * @throws IOException if the cluster does not come up within 10 seconds
+     */
+    public LoopbackCluster(int cport, int dstoreCount, int R, int timeout) throws IOException {
+        this.cport = cport;
+        this.dstoreCount = dstoreCount;
+        this.directory = Files.createTempDirectory("dfs-cluster");
+        Runtime.getRuntime().addShutdownHook(new Thread(this::deleteDirectory));
+
+        // The Controller runs its front end on the thread that creates it
+        Thread controller = new Thread(() -> new Controller(cport, R, timeout, 0), "controller");
+        controller.setDaemon(true);
+        controller.start();
+        awaitStats("dstores=0");
+
+        for (int i = 1; i <= dstoreCount; i++) {
+            new Dstore(cport + i, cport, timeout, directory.resolve("dstore" + i).toString());
+        }
+        awaitStats("dstores=" + dstoreCount);
+    }
+
+    /**
+     * Gets the port the Controller listens on
+     *
+     * @return port
+     */
+    public int getControllerPort() {
+        return cport;
+    }
+
+    /**
+     * Gets the amount of DStores
+     *
+     * @return amount of DStores
+     */
+    public int getDStoreCount() {
+        return dstoreCount;
+    }
+
+    /**
+     * Asks the Controller for its STATS
+     *
+     * @return STATS message, name=value fields after the token
+     * @throws IOException if the Controller does not answer
+     */
+    public String getStats() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), cport)) {
+            socket.setSoTimeout(1000);
+            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            writer.println(Protocol.STATS_TOKEN);
+            String stats = reader.readLine();
+            if (stats == null) {
+                throw new IOException("Controller closed the connection");
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Asks the Controller for its STATS, backing off between attempts, until they contain a field
+     *
+     * @param field name=value field to wait for
+     * @throws IOException if the field does not show up within 10 seconds
+     */
+    private void awaitStats(String field) throws IOException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        long delay = 10;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                if ((" " + getStats() + " ").contains(" " + field + " ")) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Controller is not listening yet
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            delay = Math.min(delay * 2, 500);
+        }
+        throw new IOException("Cluster did not reach " + field + " in time");
+    }
+
+    /** Deletes the file folders of the DStores */
+    private void deleteDirectory() {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            Log.warn("Error in deleting {}", directory, e);
+        }
+    }
+}
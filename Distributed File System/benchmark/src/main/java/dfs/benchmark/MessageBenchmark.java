@@ -0,0 +1,86 @@
+package dfs.benchmark;
+
+import dfs.protocol.BinaryProtocol;
+import dfs.protocol.Protocol;
+import dfs.protocol.Request;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures framing a client message, as text split once into a Request, with the String.split the
+ * handlers used before, and as a binary frame. Run from the shaded jar with
+ *
+ * <pre>
+ *   java -cp dfs-benchmark-1.0.0-SNAPSHOT-all.jar org.openjdk.jmh.Main MessageBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBenchmark {
+
+    /** A typical request */
+    private String store = Protocol.STORE_TOKEN + " holiday-photos-2023.zip 1048576";
+
+    /** A typical request with a request ID */
+    private String pipelinedStore = "#42 " + store;
+
+    /** A typical reply */
+    private String storeTo = Protocol.STORE_TO_TOKEN + " 12346 12347 12348";
+
+    /** STORE as a binary frame, positioned after its length prefix */
+    private final ByteBuffer frame = BinaryProtocol.encode(42, store);
+
+    /** Length of the frame, not counting the length prefix */
+    private final int frameLength = frame.getInt();
+
+    @Benchmark
+    public Request parseText() {
+        return Request.parse(store);
+    }
+
+    @Benchmark
+    public Request parsePipelinedText() {
+        return Request.parse(pipelinedStore);
+    }
+
+    @Benchmark
+    public String[] splitText() {
+        return Request.split(store);
+    }
+
+    @Benchmark
+    public String[] splitString() {
+        return store.split(" ");
+    }
+
+    /**
+     * Decodes the binary frame from the start each time
+     *
+     * @return request
+     * @throws ProtocolException never, the frame is well formed
+     */
+    @Benchmark
+    public Request decodeBinary() throws ProtocolException {
+        frame.position(BinaryProtocol.LENGTH_SIZE);
+        return BinaryProtocol.decode(frame, frameLength);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinary() {
+        return BinaryProtocol.encode(42, storeTo);
+    }
+}
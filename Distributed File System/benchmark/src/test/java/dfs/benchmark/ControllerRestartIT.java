@@ -0,0 +1,136 @@
+package dfs.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import dfs.client.ChainStorer;
+import dfs.client.ParallelLoader;
+import dfs.controller.Controller;
+import dfs.dstore.Dstore;
+import dfs.protocol.Protocol;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Restarts a Controller without an index log while its DStores keep running, and checks the
+ * rebalances run when the DStores join again leave their files in place, with the Controller
+ * rebuilding its index from the files the DStores list
+ */
+class ControllerRestartIT {
+
+    /** Port of the Controller, the DStores listen on the ports after it */
+    private static final int CPORT = Integer.getInteger("bench.cport", 23000) + 300;
+
+    /** Replication Factor, and amount of DStores */
+    private static final int R = 2;
+
+    /** Timeout in milliseconds of the Controller and DStores */
+    private static final int TIMEOUT = 2000;
+
+    private final List<Process> processes = new ArrayList<>();
+
+    @AfterEach
+    void stopProcesses() {
+        processes.forEach(Process::destroyForcibly);
+    }
+
+    @Test
+    void restartedControllerKeepsFiles(@TempDir Path folder) throws Exception {
+        Process controller = startController();
+        for (int i = 1; i <= R; i++) {
+            start(Dstore.class.getName(), CPORT + i, CPORT, TIMEOUT, folder.resolve("dstore" + i));
+        }
+        awaitJoin();
+
+        byte[] content = "kept across restarts".getBytes(StandardCharsets.US_ASCII);
+        Path source = Files.write(folder.resolve("kept.txt"), content);
+        new ChainStorer(CPORT, TIMEOUT).store(source);
+
+        controller.destroyForcibly().waitFor();
+        startController();
+        awaitJoin();
+        // Every JOIN requests a rebalance, give them time to run
+        Thread.sleep(2L * TIMEOUT);
+
+        for (int i = 1; i <= R; i++) {
+            Path stored = folder.resolve("dstore" + i).resolve("kept.txt");
+            assertArrayEquals(content, Files.readAllBytes(stored), stored.toString());
+        }
+        assertEquals(Protocol.LIST_TOKEN + " kept.txt", awaitJoin());
+        Path loaded = folder.resolve("loaded.txt");
+        assertEquals(content.length, new ParallelLoader(CPORT, TIMEOUT, 1024).load("kept.txt", loaded));
+        assertArrayEquals(content, Files.readAllBytes(loaded));
+    }
+
+    /**
+     * Starts a Controller with no index log and no periodic rebalance
+     *
+     * @return process
+     * @throws IOException if the process cannot be started
+     */
+    private Process startController() throws IOException {
+        return start(Controller.class.getName(), CPORT, R, TIMEOUT, 0);
+    }
+
+    /**
+     * Starts the main method of a class in a new JVM with the class path of this one
+     *
+     * @param mainClass name of the class
+     * @param args arguments of the main method
+     * @return process
+     * @throws IOException if the process cannot be started
+     */
+    private Process start(String mainClass, Object... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Ddfs.log.level=WARN");
+        command.add(mainClass);
+        for (Object arg : args) {
+            command.add(String.valueOf(arg));
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        processes.add(process);
+        return process;
+    }
+
+    /**
+     * Waits until the Controller answers LIST, which it only does once R DStores have joined
+     *
+     * @return reply to LIST
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static String awaitJoin() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10 * TIMEOUT;
+        String reply = null;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), CPORT)) {
+                socket.setSoTimeout(TIMEOUT);
+                new PrintWriter(socket.getOutputStream(), true).println(Protocol.LIST_TOKEN);
+                reply = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                if (reply != null && reply.startsWith(Protocol.LIST_TOKEN)) {
+                    return reply;
+                }
+            } catch (IOException e) {
+                reply = e.toString();
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("DStores did not join: " + reply);
+    }
+}
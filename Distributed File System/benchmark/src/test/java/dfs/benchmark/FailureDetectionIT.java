@@ -0,0 +1,153 @@
+package dfs.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dfs.controller.Controller;
+import dfs.protocol.Protocol;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Joins a Controller with heartbeats turned on as a fake DStore, and checks the Controller keeps
+ * it while it answers every PING and removes it once it goes quiet
+ */
+class FailureDetectionIT {
+
+    /** Port of the Controller, the fake DStore claims the port after it */
+    private static final int CPORT = Integer.getInteger("bench.cport", 23000) + 400;
+
+    /** Timeout in milliseconds of the Controller */
+    private static final int TIMEOUT = 2000;
+
+    /** Time in milliseconds without a message after which the Controller removes a DStore */
+    private static final int FAILURE_TIMEOUT = 1000;
+
+    private final List<Process> processes = new ArrayList<>();
+
+    @AfterEach
+    void stopProcesses() {
+        processes.forEach(Process::destroyForcibly);
+    }
+
+    @Test
+    void quietDStoreIsRemoved() throws Exception {
+        start(Controller.class.getName(), CPORT, 1, TIMEOUT, 0);
+        try (Socket dstore = connect()) {
+            dstore.setSoTimeout(100);
+            PrintWriter out = new PrintWriter(dstore.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(dstore.getInputStream()));
+            out.println(Protocol.JOIN_TOKEN + " " + (CPORT + 1));
+
+            // Answer everything for several failure timeouts
+            int pings = 0;
+            long lastAnswerTime = System.currentTimeMillis();
+            long end = System.currentTimeMillis() + 3 * FAILURE_TIMEOUT;
+            while (System.currentTimeMillis() < end) {
+                String message = readLine(in);
+                if (Protocol.PING_TOKEN.equals(message)) {
+                    pings++;
+                    out.println(Protocol.PONG_TOKEN);
+                    lastAnswerTime = System.currentTimeMillis();
+                } else if (Protocol.LIST_TOKEN.equals(message) || Protocol.LIST_SIZES_TOKEN.equals(message)) {
+                    out.println(message);
+                    lastAnswerTime = System.currentTimeMillis();
+                }
+            }
+            assertTrue(pings >= 2, "only " + pings + " PINGs in " + 3 * FAILURE_TIMEOUT + "ms");
+            assertEquals(Protocol.LIST_TOKEN, list());
+
+            // Go quiet, which the Controller has to notice within the failure timeout and a heartbeat
+            String message = "";
+            while (message != null && System.currentTimeMillis() - lastAnswerTime < 3 * FAILURE_TIMEOUT) {
+                message = readLine(in);
+            }
+            long removalTime = System.currentTimeMillis() - lastAnswerTime;
+            assertEquals(null, message, "connection of the quiet DStore was not closed");
+            assertTrue(removalTime >= FAILURE_TIMEOUT, "removed after " + removalTime + "ms");
+            assertEquals(Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN, list());
+        }
+    }
+
+    /**
+     * Reads a message, waiting at most the timeout of the socket
+     *
+     * @param in stream of the socket
+     * @return message, empty if none arrived in time, null at the end of the stream
+     * @throws IOException if reading fails
+     */
+    private static String readLine(BufferedReader in) throws IOException {
+        try {
+            return in.readLine();
+        } catch (SocketTimeoutException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Connects to the Controller, waiting for it to listen
+     *
+     * @return socket
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static Socket connect() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10 * TIMEOUT;
+        while (true) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), CPORT);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new AssertionError("Controller is not listening: " + e);
+                }
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Sends LIST to the Controller as a client
+     *
+     * @return reply
+     * @throws IOException if the Controller does not reply
+     */
+    private static String list() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), CPORT)) {
+            socket.setSoTimeout(TIMEOUT);
+            new PrintWriter(socket.getOutputStream(), true).println(Protocol.LIST_TOKEN);
+            return new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine().trim();
+        }
+    }
+
+    /**
+     * Starts the main method of a class in a new JVM with the class path of this one and the
+     * failure timeout set
+     *
+     * @param mainClass name of the class
+     * @param args arguments of the main method
+     * @throws IOException if the process cannot be started
+     */
+    private void start(String mainClass, Object... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Ddfs.log.level=WARN");
+        command.add("-Dcontroller.failureTimeout=" + FAILURE_TIMEOUT);
+        command.add(mainClass);
+        for (Object arg : args) {
+            command.add(String.valueOf(arg));
+        }
+        processes.add(new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start());
+    }
+}
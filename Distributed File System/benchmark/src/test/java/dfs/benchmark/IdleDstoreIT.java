@@ -0,0 +1,121 @@
+package dfs.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dfs.controller.Controller;
+import dfs.dstore.Dstore;
+import dfs.protocol.Protocol;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Kills the Controller of a DStore and checks the DStore waits for it to come back without
+ * using the CPU. Both run in processes of their own, so the CPU time measured is the DStore's alone
+ */
+class IdleDstoreIT {
+
+    /** Port of the Controller, the DStore listens on the port after it */
+    private static final int CPORT = Integer.getInteger("bench.cport", 23000) + 200;
+
+    /** Timeout in milliseconds of the Controller and DStore */
+    private static final int TIMEOUT = 2000;
+
+    /** Most CPU time the idle DStore may use while measured, far below a spinning thread's */
+    private static final Duration MAX_CPU_TIME = Duration.ofMillis(300);
+
+    /** Time the idle DStore is measured for */
+    private static final Duration MEASURED_TIME = Duration.ofSeconds(3);
+
+    private final List<Process> processes = new ArrayList<>();
+
+    @AfterEach
+    void stopProcesses() {
+        processes.forEach(Process::destroyForcibly);
+    }
+
+    @Test
+    void dstoreIsIdleWithoutController(@TempDir Path folder) throws Exception {
+        Process controller = start(Controller.class.getName(), CPORT, 1, TIMEOUT, 60000);
+        Process dstore = start(Dstore.class.getName(), CPORT + 1, CPORT, TIMEOUT, folder.resolve("dstore"));
+        awaitJoin();
+
+        controller.destroyForcibly().waitFor();
+        // Give the DStore time to notice and fall back to reconnecting
+        Thread.sleep(1000);
+
+        Duration before = cpuTime(dstore);
+        Thread.sleep(MEASURED_TIME.toMillis());
+        Duration used = cpuTime(dstore).minus(before);
+
+        assertTrue(dstore.isAlive(), "DStore exited without its Controller");
+        assertTrue(used.compareTo(MAX_CPU_TIME) < 0,
+                "DStore used " + used.toMillis() + "ms of CPU in " + MEASURED_TIME.toMillis() + "ms");
+    }
+
+    /**
+     * Starts the main method of a class in a new JVM with the class path of this one
+     *
+     * @param mainClass name of the class
+     * @param args arguments of the main method
+     * @return process
+     * @throws IOException if the process cannot be started
+     */
+    private Process start(String mainClass, Object... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Ddfs.log.level=WARN");
+        command.add(mainClass);
+        for (Object arg : args) {
+            command.add(String.valueOf(arg));
+        }
+        Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        processes.add(process);
+        return process;
+    }
+
+    /** Waits until the Controller answers LIST, which it only does once the DStore has joined */
+    private static void awaitJoin() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10 * TIMEOUT;
+        String reply = null;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), CPORT)) {
+                socket.setSoTimeout(TIMEOUT);
+                new PrintWriter(socket.getOutputStream(), true).println(Protocol.LIST_TOKEN);
+                reply = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                if (reply != null && reply.startsWith(Protocol.LIST_TOKEN)) {
+                    return;
+                }
+            } catch (IOException e) {
+                reply = e.toString();
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("DStore did not join: " + reply);
+    }
+
+    /**
+     * Gets the CPU time a process has used so far
+     *
+     * @param process process
+     * @return CPU time
+     */
+    private static Duration cpuTime(Process process) {
+        return process.info().totalCpuDuration()
+                .orElseThrow(() -> new AssertionError("CPU time of processes is not available"));
+    }
+}
@@ -0,0 +1,64 @@
+package dfs.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import dfs.client.BatchClient;
+import dfs.client.ChainStorer;
+import dfs.client.ParallelLoader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Stores and loads a file larger than 2 GB through a cluster on loopback, so every size on the
+ * way is a long. The cluster has a timeout long enough to write the file to every DStore
+ */
+class LargeFileIT {
+
+    /** Port of the Controller, the DStores listen on the ports after it */
+    private static final int CPORT = Integer.getInteger("bench.cport", 23000) + 100;
+
+    /** Timeout in milliseconds of the cluster and clients */
+    private static final int TIMEOUT = 120000;
+
+    @BeforeAll
+    static void startCluster() throws IOException {
+        new LoopbackCluster(CPORT, 2, 2, TIMEOUT);
+    }
+
+    @Test
+    void fileOver2GBKeepsItsSize(@TempDir Path folder) throws IOException {
+        long size = (1L << 31) + 4099;
+        long[] offsets = {0, Integer.MAX_VALUE - 7, 1L << 31, size - 8};
+        Path source = folder.resolve("large.bin");
+        try (RandomAccessFile file = new RandomAccessFile(source.toFile(), "rw")) {
+            file.setLength(size);
+            for (long offset : offsets) {
+                file.seek(offset);
+                file.writeLong(offset);
+            }
+        }
+        new ChainStorer(CPORT, TIMEOUT).store(source);
+
+        try (BatchClient client = new BatchClient(CPORT, TIMEOUT)) {
+            String[] location = client.locate(List.of("large.bin")).get("large.bin").split(" ");
+            assertEquals(size, Long.parseLong(location[1]));
+
+            Path destination = folder.resolve("large.loaded");
+            assertEquals(size, new ParallelLoader(CPORT, TIMEOUT, 64L * 1024 * 1024).load("large.bin", destination));
+            assertEquals(size, Files.size(destination));
+            try (RandomAccessFile file = new RandomAccessFile(destination.toFile(), "r")) {
+                for (long offset : offsets) {
+                    file.seek(offset);
+                    assertEquals(offset, file.readLong(), "content at " + offset);
+                }
+            }
+            assertEquals(List.of("large.bin"), client.remove(List.of("large.bin")));
+        }
+    }
+}
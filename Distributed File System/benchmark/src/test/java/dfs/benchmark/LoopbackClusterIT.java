@@ -0,0 +1,169 @@
+package dfs.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dfs.client.BatchClient;
+import dfs.client.ChainStorer;
+import dfs.client.ParallelLoader;
+import dfs.protocol.BinaryProtocol;
+import dfs.protocol.Protocol;
+import dfs.protocol.Request;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Boots a Controller and DStores on loopback and runs the client library against them. The
+ * servers cannot be stopped, so one cluster is shared by every test and each test uses its own
+ * file names
+ */
+class LoopbackClusterIT {
+
+    /** Port of the Controller, the DStores listen on the ports after it */
+    private static final int CPORT = Integer.getInteger("bench.cport", 23000);
+
+    /** Amount of DStores */
+    private static final int DSTORES = 3;
+
+    /** Replication factor */
+    private static final int R = 2;
+
+    /** Timeout in milliseconds of the cluster and clients */
+    private static final int TIMEOUT = 2000;
+
+    private static LoopbackCluster cluster;
+
+    @BeforeAll
+    static void startCluster() throws IOException {
+        cluster = new LoopbackCluster(CPORT, DSTORES, R, TIMEOUT);
+    }
+
+    @Test
+    void chainStoredFileLoadsInParallel(@TempDir Path folder) throws IOException {
+        byte[] content = randomBytes(3 * 1024 * 1024 + 17);
+        Path source = Files.write(folder.resolve("chain.bin"), content);
+        new ChainStorer(CPORT, TIMEOUT).store(source);
+
+        Path destination = folder.resolve("chain.loaded");
+        long size = new ParallelLoader(CPORT, TIMEOUT, 256 * 1024).load("chain.bin", destination);
+
+        assertEquals(content.length, size);
+        assertArrayEquals(content, Files.readAllBytes(destination));
+    }
+
+    @Test
+    void batchStoresLocatesAndRemoves(@TempDir Path folder) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        List<String> filenames = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            String filename = "batch" + i + ".bin";
+            sources.add(Files.write(folder.resolve(filename), randomBytes(1000 + i)));
+            filenames.add(filename);
+        }
+
+        try (BatchClient client = new BatchClient(CPORT, TIMEOUT)) {
+            assertEquals(filenames, client.store(sources));
+
+            Map<String, String> locations = client.locate(filenames);
+            assertEquals(filenames, new ArrayList<>(locations.keySet()));
+            for (int i = 0; i < filenames.size(); i++) {
+                String[] location = locations.get(filenames.get(i)).split(" ");
+                int port = Integer.parseInt(location[0]);
+                assertTrue(port > CPORT && port <= CPORT + DSTORES, "DStore port " + port);
+                assertEquals(1000 + i, Integer.parseInt(location[1]));
+            }
+
+            assertEquals(filenames, client.remove(filenames));
+            assertTrue(client.locate(filenames).isEmpty());
+        }
+    }
+
+    @Test
+    void statsCountStores(@TempDir Path folder) throws IOException {
+        new ChainStorer(CPORT, TIMEOUT).store(Files.write(folder.resolve("stats.bin"), randomBytes(100)));
+
+        String stats = cluster.getStats();
+        assertTrue(stats.startsWith(Protocol.STATS_TOKEN + " "), stats);
+        assertTrue(stats.contains(" dstores=" + DSTORES + " "), stats);
+        assertTrue(field(stats, "latency.store.count") >= 1, stats);
+    }
+
+    @Test
+    void binaryFilenameWithSpaceIsRejected() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), CPORT)) {
+            socket.setSoTimeout(TIMEOUT);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write(BinaryProtocol.MAGIC);
+
+            // "bad.bin" becomes "bad bin", which no text message can carry
+            ByteBuffer store = BinaryProtocol.encode(1, Protocol.STORE_TOKEN + " bad.bin 5");
+            store.put(store.position() + 18, (byte) ' ');
+            out.write(store.array(), store.position(), store.remaining());
+            assertEquals(Protocol.ERROR_MALFORMED_REQUEST_TOKEN, BinaryProtocol.read(in).getCommand());
+
+            ByteBuffer list = BinaryProtocol.encode(2, Protocol.LIST_TOKEN);
+            out.write(list.array(), list.position(), list.remaining());
+            Request reply = BinaryProtocol.read(in);
+            assertEquals(Protocol.LIST_TOKEN, reply.getCommand());
+            for (int i = 1; i < reply.getFieldCount(); i++) {
+                assertTrue(!reply.getField(i).startsWith("bad"), reply.getField(i));
+            }
+        }
+    }
+
+    @Test
+    void dstoreClosesConnectionOnMalformedNumbers() throws IOException {
+        String[] messages = {
+            Protocol.LOAD_DATA_TOKEN + " chain.bin abc 10",
+            Protocol.LOAD_DATA_TOKEN + " chain.bin 0 -1",
+            Protocol.STORE_TOKEN + " malformed.bin 12x",
+            Protocol.STORE_BATCH_TOKEN + " malformed1.bin 5 malformed2.bin x",
+            Protocol.STORE_TOKEN + " malformed.bin",
+        };
+        for (String message : messages) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), CPORT + 1)) {
+                socket.setSoTimeout(TIMEOUT);
+                socket.getOutputStream().write((message + "\n").getBytes(StandardCharsets.US_ASCII));
+                assertEquals(-1, socket.getInputStream().read(), message);
+            }
+        }
+    }
+
+    /**
+     * Gets a numeric field of a STATS message
+     *
+     * @param stats STATS message
+     * @param name name of the field
+     * @return value of the field, or -1 if it is missing
+     */
+    private static long field(String stats, String name) {
+        for (String field : stats.split(" ")) {
+            if (field.startsWith(name + "=")) {
+                return Long.parseLong(field.substring(name.length() + 1));
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+}
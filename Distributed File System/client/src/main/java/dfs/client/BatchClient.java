@@ -0,0 +1,205 @@
+package dfs.client;
+
+import dfs.protocol.FileTransfer;
+import dfs.protocol.Log;
+import dfs.protocol.Protocol;
+import dfs.protocol.Request;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores, locates and removes many files with one exchange with the Controller per batch instead
+ * of one per file. Files are sent to each DStore over a single connection with STORE_BATCH
+ */
+public class BatchClient implements Closeable {
+
+    /** Connection to the Controller */
+    private final Socket controller;
+
+    /** Used to write messages to the Controller */
+    private final PrintWriter writer;
+
+    /** Used to read messages from the Controller */
+    private final BufferedReader reader;
+
+    /** Milliseconds to wait for any reply */
+    private final int timeout;
+
+    /**
+     * Connects to the Controller
+     *
+     * @param cport port the Controller listens on
+     * @param timeout milliseconds to wait for any reply
+     * @throws IOException if the Controller cannot be reached
+     */
+    public BatchClient(int cport, int timeout) throws IOException {
+        this.timeout = timeout;
+        this.controller = new Socket(InetAddress.getLoopbackAddress(), cport);
+        controller.setSoTimeout(timeout * 2);
+        this.writer = new PrintWriter(controller.getOutputStream(), true);
+        this.reader = new BufferedReader(new InputStreamReader(controller.getInputStream()));
+    }
+
+    /**
+     * Stores local files under their own names
+     *
+     * @param sources files to store
+     * @return names of the files stored, leaving out files which already existed or failed
+     * @throws IOException if the Controller refuses the batch
+     */
+    public List<String> store(List<Path> sources) throws IOException {
+        LinkedHashMap<String, Path> paths = new LinkedHashMap<>();
+        StringBuilder message = new StringBuilder(Protocol.STORE_BATCH_TOKEN);
+        for (Path source : sources) {
+            String filename = source.getFileName().toString();
+            paths.put(filename, source);
+            message.append(' ').append(filename).append(' ').append(Files.size(source));
+        }
+
+        writer.println(message);
+        String[] reply = Request.split(String.valueOf(reader.readLine()));
+        if (reply.length == 0 || !reply[0].equals(Protocol.STORE_BATCH_TO_TOKEN)) {
+            throw new IOException("Controller refused the batch: " + String.join(" ", reply));
+        }
+
+        // Send every DStore all of its files over one connection, all DStores at once
+        HashMap<Integer, List<Path>> filesByPort = new HashMap<>();
+        for (int i = 1; i + 1 < reply.length; i += 2) {
+            for (String port : reply[i + 1].split(",")) {
+                filesByPort.computeIfAbsent(Integer.parseInt(port), p -> new ArrayList<>()).add(paths.get(reply[i]));
+            }
+        }
+        List<CompletableFuture<Void>> transfers = new ArrayList<>();
+        filesByPort.forEach((port, files) -> transfers.add(CompletableFuture.runAsync(() -> sendFiles(port, files))));
+        transfers.forEach(CompletableFuture::join);
+
+        String[] complete = Request.split(String.valueOf(reader.readLine()));
+        if (complete.length == 0 || !complete[0].equals(Protocol.STORE_BATCH_COMPLETE_TOKEN)) {
+            throw new IOException("Batch did not complete: " + String.join(" ", complete));
+        }
+        return Arrays.asList(complete).subList(1, complete.length);
+    }
+
+    /**
+     * Sends files to a DStore one after another over one connection
+     *
+     * @param port DStore port
+     * @param files files to send
+     */
+    private void sendFiles(int port, List<Path> files) {
+        try (SocketChannel dstore = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port))) {
+            Socket socket = dstore.socket();
+            socket.setSoTimeout(timeout);
+            PrintWriter dstoreWriter = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader dstoreReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            StringBuilder message = new StringBuilder(Protocol.STORE_BATCH_TOKEN);
+            for (Path file : files) {
+                message.append(' ').append(file.getFileName()).append(' ').append(Files.size(file));
+            }
+            dstoreWriter.println(message);
+            if (!Protocol.ACK_TOKEN.equals(dstoreReader.readLine())) {
+                Log.warn("DStore: {} did not acknowledge the batch", port);
+                return;
+            }
+            for (Path path : files) {
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                    FileTransfer.send(file, 0, file.size(), dstore);
+                }
+            }
+            // Wait for the DStore to close the connection, so every file has been read
+            dstore.shutdownOutput();
+            dstoreReader.readLine();
+        } catch (IOException e) {
+            Log.error("Error in sending batch to DStore: {}", port, e);
+        }
+    }
+
+    /**
+     * Finds the DStore to load each of many files from
+     *
+     * @param filenames names of files
+     * @return filename -> "port size", leaving out files which do not exist
+     * @throws IOException if the Controller refuses the batch
+     */
+    public Map<String, String> locate(List<String> filenames) throws IOException {
+        writer.println(Protocol.LOAD_BATCH_TOKEN + " " + String.join(" ", filenames));
+        String[] reply = Request.split(String.valueOf(reader.readLine()));
+        if (reply.length == 0 || !reply[0].equals(Protocol.LOAD_FROM_BATCH_TOKEN)) {
+            throw new IOException("Controller refused the batch: " + String.join(" ", reply));
+        }
+
+        LinkedHashMap<String, String> locations = new LinkedHashMap<>();
+        for (int i = 1; i + 2 < reply.length; i += 3) {
+            locations.put(reply[i], reply[i + 1] + " " + reply[i + 2]);
+        }
+        return locations;
+    }
+
+    /**
+     * Removes many files
+     *
+     * @param filenames names of files
+     * @return names of the files removed, leaving out files which did not exist or failed
+     * @throws IOException if the Controller refuses the batch
+     */
+    public List<String> remove(List<String> filenames) throws IOException {
+        writer.println(Protocol.REMOVE_BATCH_TOKEN + " " + String.join(" ", filenames));
+        String[] reply = Request.split(String.valueOf(reader.readLine()));
+        if (reply.length == 0 || !reply[0].equals(Protocol.REMOVE_BATCH_COMPLETE_TOKEN)) {
+            throw new IOException("Controller refused the batch: " + String.join(" ", reply));
+        }
+        return Arrays.asList(reply).subList(1, reply.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        controller.close();
+    }
+
+    /**
+     * Stores, locates and removes every file in a folder from the command line
+     *
+     * @param args [cport] [timeout] [folder]
+     */
+    public static void main(String[] args) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(Paths.get(args[2]))) {
+            files = listing.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        List<String> filenames = files.stream().map(file -> file.getFileName().toString()).collect(Collectors.toList());
+
+        try (BatchClient client = new BatchClient(Integer.parseInt(args[0]), Integer.parseInt(args[1]))) {
+            long start = System.nanoTime();
+            int stored = client.store(files).size();
+            long stores = System.nanoTime();
+            int located = client.locate(filenames).size();
+            long loads = System.nanoTime();
+            int removed = client.remove(filenames).size();
+            long end = System.nanoTime();
+            System.out.printf("Stored %d files in %.1f ms, located %d in %.1f ms, removed %d in %.1f ms%n",
+                    stored, (stores - start) / 1e6, located, (loads - stores) / 1e6, removed, (end - loads) / 1e6);
+        }
+    }
+}
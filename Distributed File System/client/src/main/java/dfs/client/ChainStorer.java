@@ -0,0 +1,109 @@
+package dfs.client;
+
+import dfs.protocol.FileTransfer;
+import dfs.protocol.Protocol;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stores a file by sending it once, to the first DStore the Controller chose. That DStore forwards
+ * it along the rest of the DStores with STORE_CHAIN while still receiving it, so the client uploads
+ * one copy instead of R
+ */
+public class ChainStorer {
+
+    /** Port the Controller listens on */
+    private final int cport;
+
+    /** Milliseconds to wait for any reply */
+    private final int timeout;
+
+    /**
+     * Creates a storer
+     *
+     * @param cport port the Controller listens on
+     * @param timeout milliseconds to wait for any reply
+     */
+    public ChainStorer(int cport, int timeout) {
+        this.cport = cport;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Stores a local file under its own name
+     *
+     * @param source file to store
+     * @throws IOException if the Controller refuses the store or the store does not complete
+     */
+    public void store(Path source) throws IOException {
+        String filename = source.getFileName().toString();
+        try (Socket controller = new Socket(InetAddress.getLoopbackAddress(), cport);
+                FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+            // Waiting for STORE_COMPLETE can take as long as the whole chain
+            controller.setSoTimeout(timeout * 2);
+            PrintWriter writer = new PrintWriter(controller.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(controller.getInputStream()));
+
+            long size = file.size();
+            writer.println(Protocol.STORE_TOKEN + " " + filename + " " + size);
+            String reply = reader.readLine();
+            String[] splitReply = reply == null ? new String[0] : reply.split(" ");
+            if (splitReply.length < 2 || !splitReply[0].equals(Protocol.STORE_TO_TOKEN)) {
+                throw new IOException("Controller refused to store " + filename + ": " + reply);
+            }
+
+            // Send the file to the head of the chain, which passes the rest of the chain on
+            StringBuilder message = new StringBuilder(Protocol.STORE_CHAIN_TOKEN)
+                    .append(' ').append(filename).append(' ').append(size);
+            for (int i = 2; i < splitReply.length; i++) {
+                message.append(' ').append(splitReply[i]);
+            }
+            int head = Integer.parseInt(splitReply[1]);
+            try (SocketChannel dstore = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), head))) {
+                Socket dstoreSocket = dstore.socket();
+                dstoreSocket.setSoTimeout(timeout);
+                PrintWriter dstoreWriter = new PrintWriter(dstoreSocket.getOutputStream(), true);
+                BufferedReader dstoreReader = new BufferedReader(new InputStreamReader(dstoreSocket.getInputStream()));
+
+                dstoreWriter.println(message);
+                if (!Protocol.ACK_TOKEN.equals(dstoreReader.readLine())) {
+                    throw new IOException("DStore: " + head + " did not acknowledge " + filename);
+                }
+                if (FileTransfer.send(file, 0, size, dstore) < size) {
+                    throw new IOException(filename + " changed while storing it");
+                }
+
+                reply = reader.readLine();
+            }
+            if (!Protocol.STORE_COMPLETE_TOKEN.equals(reply)) {
+                throw new IOException("Store of " + filename + " did not complete: " + reply);
+            }
+        }
+    }
+
+    /**
+     * Stores a file from the command line
+     *
+     * @param args [cport] [timeout] [file]
+     */
+    public static void main(String[] args) throws IOException {
+        ChainStorer storer = new ChainStorer(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+        Path source = Paths.get(args[2]);
+
+        long start = System.nanoTime();
+        storer.store(source);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Stored %d bytes in %.3f s (%.1f MB/s)%n", source.toFile().length(), seconds,
+                source.toFile().length() / seconds / 1e6);
+    }
+}
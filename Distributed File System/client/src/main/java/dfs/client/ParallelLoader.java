@@ -0,0 +1,196 @@
+package dfs.client;
+
+import dfs.protocol.FileTransfer;
+import dfs.protocol.Log;
+import dfs.protocol.Protocol;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a file from every DStore storing it at once. The Controller is asked for all replicas with
+ * LOAD_ALL, the file is split into chunks, and one connection per DStore takes chunks from a shared
+ * queue with ranged LOAD_DATA requests, writing each straight to its place in the file. A chunk a
+ * DStore fails to send is put back for the others
+ */
+public class ParallelLoader {
+
+    /** Size of the chunks a file is split into */
+    private static final long DEFAULT_CHUNK_SIZE = 4L * 1024 * 1024;
+
+    /** Port the Controller listens on */
+    private final int cport;
+
+    /** Milliseconds to wait for any reply */
+    private final int timeout;
+
+    /** Size of the chunks a file is split into */
+    private final long chunkSize;
+
+    /**
+     * Creates a loader
+     *
+     * @param cport port the Controller listens on
+     * @param timeout milliseconds to wait for any reply
+     * @param chunkSize size of the chunks a file is split into
+     */
+    public ParallelLoader(int cport, int timeout, long chunkSize) {
+        this.cport = cport;
+        this.timeout = timeout;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Loads a file into a local file
+     *
+     * @param filename name of file
+     * @param destination file to write to, replaced if it exists
+     * @return size of the file
+     * @throws IOException if the Controller refuses the load or no DStore can send some chunk
+     */
+    public long load(String filename, Path destination) throws IOException {
+        String reply;
+        try (Socket controller = new Socket(InetAddress.getLoopbackAddress(), cport)) {
+            controller.setSoTimeout(timeout);
+            PrintWriter writer = new PrintWriter(controller.getOutputStream(), true);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(controller.getInputStream()));
+            writer.println(Protocol.LOAD_ALL_TOKEN + " " + filename);
+            reply = reader.readLine();
+        }
+
+        String[] splitReply = reply == null ? new String[0] : reply.split(" ");
+        if (splitReply.length < 3 || !splitReply[0].equals(Protocol.LOAD_FROM_ALL_TOKEN)) {
+            throw new IOException("Controller refused to load " + filename + ": " + reply);
+        }
+        long size = Long.parseLong(splitReply[1]);
+        List<Integer> ports = new ArrayList<>();
+        for (int i = 2; i < splitReply.length; i++) {
+            ports.add(Integer.parseInt(splitReply[i]));
+        }
+
+        ConcurrentLinkedQueue<Long> chunks = new ConcurrentLinkedQueue<>();
+        for (long offset = 0; offset < size; offset += chunkSize) {
+            chunks.add(offset);
+        }
+
+        try (FileChannel file = FileChannel.open(destination, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Chunks can only be written inside the file, so give it its full size first
+            if (size > 0) {
+                file.write(ByteBuffer.allocate(1), size - 1);
+            }
+
+            ExecutorService workers = Executors.newFixedThreadPool(ports.size());
+            try {
+                // A DStore can give up on a chunk after the others ran out of work, so go again
+                // with the DStores still working until every chunk is loaded
+                Set<Integer> working = new HashSet<>(ports);
+                while (!chunks.isEmpty() && !working.isEmpty()) {
+                    List<Future<Boolean>> results = new ArrayList<>();
+                    List<Integer> round = new ArrayList<>(working);
+                    for (int port : round) {
+                        results.add(workers.submit(() -> loadChunks(port, filename, size, chunks, file)));
+                    }
+                    for (int i = 0; i < round.size(); i++) {
+                        if (!getResult(results.get(i))) {
+                            working.remove(round.get(i));
+                        }
+                    }
+                }
+            } finally {
+                workers.shutdownNow();
+            }
+            if (!chunks.isEmpty()) {
+                throw new IOException("No DStore could send part of " + filename);
+            }
+            file.force(false);
+        }
+        return size;
+    }
+
+    /**
+     * Loads chunks from one DStore until there are none left or the DStore fails
+     *
+     * @param port DStore port
+     * @param filename name of file
+     * @param size size of the file
+     * @param chunks offsets of the chunks left to load
+     * @param file file to write to
+     * @return false if the DStore failed
+     */
+    private boolean loadChunks(int port, String filename, long size, ConcurrentLinkedQueue<Long> chunks,
+            FileChannel file) {
+        Long offset = null;
+        try (Socket dstore = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            dstore.setSoTimeout(timeout);
+            PrintWriter writer = new PrintWriter(dstore.getOutputStream(), true);
+            ReadableByteChannel source = Channels.newChannel(dstore.getInputStream());
+
+            while ((offset = chunks.poll()) != null) {
+                long length = Math.min(chunkSize, size - offset);
+                writer.println(Protocol.LOAD_DATA_TOKEN + " " + filename + " " + offset + " " + length);
+                if (FileTransfer.receive(source, file, offset, length) < length) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.warn("Error in loading from DStore {}", port, e);
+        }
+
+        if (offset != null) {
+            chunks.add(offset);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits for a worker to finish
+     *
+     * @param result result of the worker
+     * @return result, false if the worker failed
+     */
+    private static boolean getResult(Future<Boolean> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading");
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Loads a file from the command line
+     *
+     * @param args [cport] [timeout] [filename] [destination] [chunk size, optional]
+     */
+    public static void main(String[] args) throws IOException {
+        long chunkSize = args.length > 4 ? Long.parseLong(args[4]) : DEFAULT_CHUNK_SIZE;
+        ParallelLoader loader = new ParallelLoader(Integer.parseInt(args[0]), Integer.parseInt(args[1]), chunkSize);
+
+        long start = System.nanoTime();
+        long size = loader.load(args[2], Paths.get(args[3]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Loaded %d bytes in %.3f s (%.1f MB/s)%n", size, seconds, size / seconds / 1e6);
+    }
+}
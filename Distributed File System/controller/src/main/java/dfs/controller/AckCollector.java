@@ -0,0 +1,109 @@
+package dfs.controller;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the ACKs of an operation sent to several DStores at once. Completes as soon as every
+ * DStore has sent its ACK, or when a single deadline shared by all DStores has passed
+ */
+public class AckCollector {
+
+    /** Counts down once for every DStore which has sent its ACK */
+    private final CountDownLatch remaining;
+
+    /** Ports of the DStores whose ACK is being waited for */
+    private final Set<Integer> expectedPorts = ConcurrentHashMap.newKeySet();
+
+    /** Ports of the DStores which have sent their ACK */
+    private final Set<Integer> ackedPorts = ConcurrentHashMap.newKeySet();
+
+    /** Messages being waited for */
+    private final List<CompletableFuture<?>> expected = new CopyOnWriteArrayList<>();
+
+    /** UNIX EPOCH time in milliseconds after which no more ACKs are waited for */
+    private final long deadline;
+
+    /**
+     * Creates a collector for a number of ACKs
+     *
+     * @param neededACKs amount of ACKs needed to complete
+     * @param timeout time in milliseconds from now until the deadline
+     */
+    public AckCollector(int neededACKs, int timeout) {
+        this.remaining = new CountDownLatch(neededACKs);
+        this.deadline = System.currentTimeMillis() + timeout;
+    }
+
+    /**
+     * Records the ACK of a DStore once its message has arrived
+     *
+     * @param port DStore port
+     * @param message future completed when the ACK arrives
+     */
+    public void expect(int port, CompletableFuture<?> message) {
+        expected.add(message);
+        expectedPorts.add(port);
+        message.thenRun(() -> ack(port));
+    }
+
+    /**
+     * Records an ACK from a DStore, duplicates are ignored
+     *
+     * @param port DStore port
+     */
+    public void ack(int port) {
+        if (ackedPorts.add(port)) {
+            remaining.countDown();
+        }
+    }
+
+    /**
+     * Waits until every ACK has been received or the deadline has passed, then stops waiting for
+     * any ACK which is still missing
+     *
+     * @return whether every ACK was received in time
+     */
+    public boolean await() {
+        try {
+            return remaining.await(getRemainingTime(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            expected.forEach(message -> message.cancel(false));
+        }
+    }
+
+    /**
+     * Gets the time left until the deadline
+     *
+     * @return time in milliseconds, 0 if the deadline has passed
+     */
+    public long getRemainingTime() {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Gets all DStores whose ACK has been waited for
+     *
+     * @return DStore ports
+     */
+    public Set<Integer> getExpectedPorts() {
+        return expectedPorts;
+    }
+
+    /**
+     * Gets all DStores which have sent their ACK
+     *
+     * @return DStore ports
+     */
+    public Set<Integer> getAckedPorts() {
+        return ackedPorts;
+    }
+}
@@ -0,0 +1,1280 @@
+package dfs.controller;
+
+import dfs.protocol.HandlerThreads;
+import dfs.protocol.LatencyHistogram;
+import dfs.protocol.Log;
+import dfs.protocol.Metrics;
+import dfs.protocol.Protocol;
+import dfs.protocol.Request;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A controller which controls the communication between all connected DStores and Clients */
+public class Controller {
+
+    /** Controller port */
+    private final int cport;
+
+    /** Replication factor for storing values across R DStores */
+    private final int replicationFactor;
+
+    /** Timeout in milliseconds for communicating with a DStore and receiving an ACK */
+    private final int timeout;
+
+    /** Rebalance period in milliseconds for rebalancing files */
+    private final int rebalancePeriod;
+
+    /** Amount of threads handling messages from clients and DStores */
+    private final int workerThreads =
+            Integer.getInteger("controller.workers", Runtime.getRuntime().availableProcessors() * 4);
+
+    /** Amount of connections which can wait for a free worker thread */
+    private final int workerQueue = Integer.getInteger("controller.workerQueue", 10000);
+
+    /** Amount of requests with IDs a client can have handled at once */
+    private final int maxPipelined = Integer.getInteger("controller.maxPipelined", 64);
+
+    /** Most files a client is remembered to have tried DStores for, so a RELOAD skips them */
+    private final int maxTriedFiles = Integer.getInteger("controller.maxTriedFiles", 1024);
+
+    /** Runs handlers which wait on DStores, on virtual threads if enabled at startup */
+    private final ExecutorService handlers = HandlerThreads.newExecutor("handler");
+
+    /** List of all connected DStores */
+    private final List<DstoreMessageWriter> dstores = new CopyOnWriteArrayList<>();
+
+    /** Set of all connected clients */
+    private final Set<ClientMessageWriter> clients = ConcurrentHashMap.newKeySet();
+
+    /** Index storing all files */
+    private final Index index = new Index();
+
+    /** Chooses the DStore each client loads a file from */
+    private final ReplicaSelector replicaSelector = new ReplicaSelector();
+
+    /** Request counters and latencies, sent to any client asking with STATS */
+    private final Metrics metrics = new Metrics();
+
+    /** Command -> latency of its requests, from being framed until their last reply */
+    private final Map<String, LatencyHistogram> requestLatency = new HashMap<>();
+
+    /** Amount of client requests being handled */
+    private final AtomicInteger requestsInProgress = new AtomicInteger();
+
+    /** Time in milliseconds DStores are given to finish a rebalance */
+    private final int rebalanceTimeout;
+
+    /** Time in milliseconds without a message after which a DStore is treated as failed, 0 to only detect lost connections */
+    private final int failureTimeout = Integer.getInteger("controller.failureTimeout", 0);
+
+    /** Maximum amount of files copied by one round of re-replication */
+    private final int replicationBatch = Integer.getInteger("controller.replicationBatch", 1000);
+
+    /** Starts periodic work, such as rebalances and heartbeats */
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Runs rebalances and re-replication one at a time, as both move files between DStores */
+    private final ExecutorService rebalancer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rebalancer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Whether a rebalance has been requested and not started yet */
+    private final AtomicBoolean rebalanceRequested = new AtomicBoolean(false);
+
+    /** Whether re-replication has been requested and not started yet */
+    private final AtomicBoolean replicationRequested = new AtomicBoolean(false);
+
+    /** Files which lost a replica when a DStore failed */
+    private final ReplicationQueue underReplicated = new ReplicationQueue();
+
+    public static void main(String[] args) {
+        try {
+            final int cport = Integer.parseInt(args[0]);
+            final int R = Integer.parseInt(args[1]);
+            final int timeout = Integer.parseInt(args[2]);
+            final int rebalancePeriod = Integer.parseInt(args[3]);
+
+            // launch the controller
+            new Controller(cport, R, timeout, rebalancePeriod);
+        } catch (Exception e) {
+            Log.error("Error parsing commandline arguments");
+        }
+    }
+
+    public Controller(int cport, int R, int timeout, int rebalancePeriod) {
+        this.cport = cport;
+        this.replicationFactor = R;
+        this.timeout = timeout;
+        this.rebalancePeriod = rebalancePeriod;
+        this.rebalanceTimeout = Integer.getInteger("controller.rebalanceTimeout", timeout);
+
+        for (String command : new String[] {Protocol.LIST_TOKEN, Protocol.STORE_TOKEN, Protocol.LOAD_TOKEN,
+                Protocol.RELOAD_TOKEN, Protocol.LOAD_ALL_TOKEN, Protocol.REMOVE_TOKEN, Protocol.STORE_BATCH_TOKEN,
+                Protocol.LOAD_BATCH_TOKEN, Protocol.REMOVE_BATCH_TOKEN}) {
+            requestLatency.put(command, metrics.histogram("latency." + command.toLowerCase()));
+        }
+        metrics.gauge("clients", clients::size);
+        metrics.gauge("dstores", dstores::size);
+        metrics.gauge("requests.in_progress", requestsInProgress::get);
+
+        // Persist the index if a folder for its write-ahead log has been given
+        String indexDirectory = System.getProperty("controller.indexDir");
+        if (indexDirectory != null) {
+            try {
+                index.openLog(Path.of(indexDirectory));
+            } catch (IOException e) {
+                Log.error("Error in opening index log: {}", e);
+            }
+        }
+
+        if (rebalancePeriod > 0) {
+            timer.scheduleWithFixedDelay(this::requestRebalance, rebalancePeriod, rebalancePeriod, TimeUnit.MILLISECONDS);
+        }
+        if (failureTimeout > 0) {
+            int heartbeatPeriod = Math.max(1, failureTimeout / 3);
+            timer.scheduleWithFixedDelay(this::checkDStores, heartbeatPeriod, heartbeatPeriod, TimeUnit.MILLISECONDS);
+        }
+
+        createSocket();
+    }
+
+    /**
+     * Waits for the ACKs of an operation, recording how long it took and which DStores timed out
+     *
+     * @param acks ACKs being waited for
+     * @param operation name of the operation, such as "store"
+     * @return whether every ACK was received in time
+     */
+    private boolean awaitAcks(AckCollector acks, String operation) {
+        long startTime = System.nanoTime();
+        boolean complete = acks.await();
+        metrics.histogram("ack_wait." + operation).record(System.nanoTime() - startTime);
+        if (!complete) {
+            for (int port : acks.getExpectedPorts()) {
+                if (!acks.getAckedPorts().contains(port)) {
+                    metrics.increment("dstore." + port + ".ack_timeouts");
+                }
+            }
+        }
+        return complete;
+    }
+
+    /** Rebalances as soon as the current rebalance, if any, has finished */
+    private void requestRebalance() {
+        if (rebalanceRequested.compareAndSet(false, true)) {
+            rebalancer.execute(() -> {
+                rebalanceRequested.set(false);
+                rebalance();
+            });
+        }
+    }
+
+    /**
+     * Sends a PING heartbeat to every DStore which has been quiet for a while, and removes every
+     * DStore which has sent nothing within the failure timeout
+     */
+    private void checkDStores() {
+        long now = System.currentTimeMillis();
+        for (DstoreMessageWriter dstore : dstores) {
+            long silence = now - dstore.getLastMessageTime();
+            if (silence >= failureTimeout) {
+                Log.warn("DStore: {} has not responded in {}ms", dstore.getPort(), silence);
+                removeDStore(dstore);
+            } else if (silence >= failureTimeout / 3) {
+                dstore.sendDStoreMessage(Protocol.PING_TOKEN);
+            }
+        }
+    }
+
+    /**
+     * Removes a failed DStore from placement and loading, and queues every file it stored to be
+     * copied to another DStore
+     *
+     * @param dstore failed DStore
+     */
+    private void removeDStore(DstoreMessageWriter dstore) {
+        if (!dstores.remove(dstore)) {
+            return;
+        }
+        dstore.close();
+
+        List<String> files = index.removeDStore(dstore.getPort());
+        replicaSelector.remove(dstore.getPort());
+        metrics.removeGauge("dstore." + dstore.getPort() + ".loads_in_flight");
+        Log.info("Removed DStore: {}, {} files lost a replica", dstore.getPort(), files.size());
+        for (String filename : files) {
+            if (index.isAvailable(filename)) {
+                underReplicated.add(filename, index.getPortsWithFile(filename).size());
+            }
+        }
+        requestReplication();
+    }
+
+    /** Copies under-replicated files as soon as the current rebalance, if any, has finished */
+    private void requestReplication() {
+        if (replicationRequested.compareAndSet(false, true)) {
+            rebalancer.execute(() -> {
+                replicationRequested.set(false);
+                List<String> filenames;
+                while (!(filenames = underReplicated.poll(replicationBatch)).isEmpty()) {
+                    replicate(filenames);
+                }
+            });
+        }
+    }
+
+    /**
+     * Copies files to DStores until they are stored by R DStores again. Every DStore storing a file
+     * is sent one REBALANCE message listing its files in order, so the files most at risk are
+     * copied first. Files which cannot be copied are left for the next rebalance
+     *
+     * @param filenames files to copy, most at risk first
+     */
+    private void replicate(List<String> filenames) {
+        try {
+            HashMap<Integer, DstoreMessageWriter> connected = new HashMap<>();
+            dstores.forEach(dstore -> connected.put(dstore.getPort(), dstore));
+
+            // Spread the files over the DStores storing them, each file sent by one of them
+            HashMap<Integer, Map<String, List<Integer>>> sends = new HashMap<>();
+            for (String filename : filenames) {
+                if (!index.isAvailable(filename)) {
+                    continue;
+                }
+                ArrayList<Integer> holders = index.getPortsWithFile(filename);
+                holders.removeIf(port -> !connected.containsKey(port));
+                if (holders.isEmpty()) {
+                    Log.warn("File {} is not stored by any connected DStore", filename);
+                    continue;
+                }
+                if (holders.size() >= replicationFactor) {
+                    continue;
+                }
+
+                List<Integer> destinations = index.reserveDStores(filename, replicationFactor - holders.size());
+                if (destinations.isEmpty()) {
+                    continue;
+                }
+                int source = holders.get(0);
+                for (int holder : holders) {
+                    if (sends.getOrDefault(holder, Map.of()).size() < sends.getOrDefault(source, Map.of()).size()) {
+                        source = holder;
+                    }
+                }
+                sends.computeIfAbsent(source, port -> new LinkedHashMap<>()).put(filename, destinations);
+            }
+            if (sends.isEmpty()) {
+                return;
+            }
+
+            Log.info("Copying under-replicated files from {} DStores", sends.size());
+            AckCollector completed = new AckCollector(sends.size(), rebalanceTimeout);
+            for (int port : sends.keySet()) {
+                completed.expect(port, connected.get(port).expectMessage(Protocol.REBALANCE_COMPLETE_TOKEN, ""));
+            }
+            sends.forEach((port, files) -> connected.get(port).sendDStoreMessage(RebalancePlan.createMessage(files, List.of())));
+            if (!awaitAcks(completed, "replicate")) {
+                Log.warn("Not all DStores sent {} in time", Protocol.REBALANCE_COMPLETE_TOKEN);
+            }
+
+            sends.forEach((port, files) -> files.forEach((filename, destinations) -> {
+                for (int destination : destinations) {
+                    if (completed.getAckedPorts().contains(port) && dstores.contains(connected.get(destination))) {
+                        index.addReservedDStoreFile(destination, filename);
+                    } else {
+                        index.cancelReservation(destination, filename);
+                    }
+                }
+            }));
+        } catch (Exception e) {
+            Log.error("Error in copying under-replicated files: {}", e);
+        }
+    }
+
+    /**
+     * Makes every available file stored by R DStores and spreads files evenly over the DStores,
+     * removing files which are being removed. Every DStore is asked for its files,
+     * then sent its part of the plan, and the DStores copy files between each other in parallel
+     */
+    private void rebalance() {
+        try {
+            List<DstoreMessageWriter> participants = new ArrayList<>(dstores);
+            if (participants.size() < replicationFactor) {
+                return;
+            }
+
+            // Ask every DStore for its files at once
+            HashMap<Integer, CompletableFuture<String>> lists = new HashMap<>();
+            AckCollector listed = new AckCollector(participants.size(), timeout);
+            for (DstoreMessageWriter dstore : participants) {
+                CompletableFuture<String> list = dstore.expectMessage(Protocol.LIST_TOKEN, "");
+                lists.put(dstore.getPort(), list);
+                listed.expect(dstore.getPort(), list);
+                dstore.sendDStoreMessage(Protocol.LIST_TOKEN);
+            }
+            awaitAcks(listed, "list");
+
+            HashMap<Integer, Set<String>> listedFiles = new HashMap<>();
+            for (int port : listed.getAckedPorts()) {
+                String files = lists.get(port).getNow("");
+                listedFiles.put(port, files.isEmpty() ? new HashSet<>() : new HashSet<>(Arrays.asList(files.split(" "))));
+            }
+
+            Map<String, Index.FileState> states = index.getFileStates();
+            HashSet<String> availableFiles = new HashSet<>();
+            HashSet<String> removingFiles = new HashSet<>();
+            states.forEach((filename, state) -> {
+                if (state == Index.FileState.AVAILABLE) {
+                    availableFiles.add(filename);
+                } else if (state == Index.FileState.REMOVE_IN_PROGRESS) {
+                    removingFiles.add(filename);
+                }
+            });
+
+            RebalancePlan plan = new RebalancePlan(listedFiles, availableFiles, removingFiles, replicationFactor);
+            if (plan.getLostFiles() > 0) {
+                Log.warn("{} files are not stored by any DStore", plan.getLostFiles());
+            }
+            if (plan.isEmpty()) {
+                return;
+            }
+
+            // Send every DStore its part of the plan, then wait for all of them to complete
+            Log.info("Rebalancing files across {} DStores", plan.getPorts().size());
+            AckCollector completed = new AckCollector(plan.getPorts().size(), rebalanceTimeout);
+            for (DstoreMessageWriter dstore : participants) {
+                if (plan.getPorts().contains(dstore.getPort())) {
+                    completed.expect(dstore.getPort(), dstore.expectMessage(Protocol.REBALANCE_COMPLETE_TOKEN, ""));
+                }
+            }
+            for (DstoreMessageWriter dstore : participants) {
+                if (plan.getPorts().contains(dstore.getPort())) {
+                    dstore.sendDStoreMessage(plan.getMessage(dstore.getPort()));
+                }
+            }
+            if (!awaitAcks(completed, "rebalance")) {
+                Log.warn("Not all DStores sent {} in time", Protocol.REBALANCE_COMPLETE_TOKEN);
+            }
+
+            updateIndex(plan, listedFiles, states, completed.getAckedPorts());
+        } catch (Exception e) {
+            Log.error("Error in rebalancing: {}", e);
+        }
+    }
+
+    /**
+     * Updates the index with the files moved by a rebalance. A DStore which did not complete may
+     * not have sent or removed its files, so its part of the plan is treated as not done
+     *
+     * @param plan plan sent to the DStores
+     * @param listedFiles port -> files listed by every DStore taking part
+     * @param states filename -> state when the plan was made
+     * @param completedPorts ports of the DStores which completed
+     */
+    private void updateIndex(RebalancePlan plan, Map<Integer, Set<String>> listedFiles,
+            Map<String, Index.FileState> states, Set<Integer> completedPorts) {
+        Map<String, Set<Integer>> replicas = plan.getReplicas();
+        for (int port : plan.getPorts()) {
+            if (completedPorts.contains(port)) {
+                continue;
+            }
+            plan.getSends(port).forEach((filename, destinations) -> replicas.get(filename).removeAll(destinations));
+            for (String filename : plan.getRemoves(port)) {
+                if (replicas.containsKey(filename)) {
+                    replicas.get(filename).add(port);
+                }
+            }
+        }
+
+        replicas.forEach((filename, ports) -> {
+            ArrayList<Integer> indexedPorts = index.getPortsWithFile(filename);
+            for (int port : indexedPorts) {
+                if (!listedFiles.containsKey(port)) {
+                    ports.add(port);
+                }
+            }
+            if (!ports.isEmpty() && !ports.equals(new HashSet<>(indexedPorts))
+                    && !index.setReplicas(filename, ports)) {
+                // Removed since, any copy left behind is removed while the remove is in progress
+                Log.debug("Not updating replicas of {}, it is no longer available", filename);
+            }
+        });
+
+        // Files being removed are gone once every DStore storing them has removed them
+        states.forEach((filename, state) -> {
+            if (state != Index.FileState.REMOVE_IN_PROGRESS) {
+                return;
+            }
+            for (int port : index.getPortsWithFile(filename)) {
+                if (!completedPorts.contains(port)
+                        && (!listedFiles.containsKey(port) || listedFiles.get(port).contains(filename))) {
+                    return;
+                }
+            }
+            index.completeRemove(filename);
+        });
+    }
+
+    /** Creates the non-blocking front end and listens for any connecting clients or DStores */
+    private void createSocket() {
+        try {
+            // Virtual threads are cheap enough to give every dispatched connection its own thread
+            SelectorServer server = HandlerThreads.isVirtual()
+                    ? new SelectorServer(cport, HandlerThreads.newExecutor("worker"), new ConnectionRouter())
+                    : new SelectorServer(cport, workerThreads, workerQueue, new ConnectionRouter());
+            metrics.gauge("connections.queued", server::getQueuedConnections);
+            server.run();
+        } catch (Exception e) {
+            Log.error("Error in creating server socket: {}", e);
+        }
+    }
+
+    /** Routes each message received by the front end to the client or DStore it belongs to */
+    private class ConnectionRouter implements SelectorServer.ConnectionHandler {
+
+        @Override
+        public void requestReceived(SelectorServer.Connection connection, Request request) {
+            ClientMessageWriter client = (ClientMessageWriter) connection.getAttachment();
+            if (client != null) {
+                client.handleMessage(request);
+                return;
+            }
+
+            try {
+                // If the client sends a "JOIN" message, create a new dStore, else create a client
+                if (request.getCommand().equals(Protocol.JOIN_TOKEN)) {
+                    Log.debug("Creating a new Dstore");
+
+                    // A DStore joining again replaces its old connection
+                    int port = Integer.parseInt(request.getField(1));
+                    for (DstoreMessageWriter dstore : dstores) {
+                        if (dstore.getPort() == port && dstores.remove(dstore)) {
+                            dstore.close();
+                        }
+                    }
+
+                    Socket socket = connection.getSocket();
+                    BufferedReader message =
+                            new BufferedReader(new InputStreamReader(connection.detach()));
+                    PrintWriter printWriter = new PrintWriter(socket.getOutputStream());
+                    DstoreMessageWriter dstoreController =
+                            new DstoreMessageWriter(socket, message, request.getLine(), printWriter);
+                    dstores.add(dstoreController);
+                    metrics.gauge("dstore." + port + ".loads_in_flight", () -> replicaSelector.getInFlight(port));
+                    requestRebalance();
+                } else {
+                    Log.debug("Creating a new Client");
+                    ClientMessageWriter clientController = new ClientMessageWriter(connection);
+                    connection.setAttachment(clientController);
+                    clients.add(clientController);
+                    clientController.handleMessage(request);
+                }
+            } catch (Exception e) {
+                Log.error("Error in creating connection: {}", e);
+            }
+        }
+
+        @Override
+        public void connectionClosed(SelectorServer.Connection connection) {
+            ClientMessageWriter client = (ClientMessageWriter) connection.getAttachment();
+            if (client != null) {
+                clients.remove(client);
+                client.abandonLoad();
+            }
+            Log.debug("Closing socket");
+        }
+    }
+
+    /** A class used for handling client messages */
+    public class ClientMessageWriter {
+
+        /** Connection to the client */
+        private final SelectorServer.Connection connection;
+
+        /** DStore the client was last sent to for loading a file, -1 if none */
+        private int loadingPort = -1;
+
+        /** Limits the requests with IDs being handled at once */
+        private final Semaphore pipelined = new Semaphore(maxPipelined);
+
+        /**
+         * DStores this client has been sent to for each file since it last loaded it, least
+         * recently used first. Clients loading one file at a time forget them once they move on,
+         * pipelining clients once more than maxTriedFiles files have been loaded since
+         * filename -> ports
+         */
+        private final Map<String, Set<Integer>> triedDStores = Collections.synchronizedMap(
+                new LinkedHashMap<String, Set<Integer>>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Set<Integer>> eldest) {
+                        return size() > maxTriedFiles;
+                    }
+                });
+
+        public ClientMessageWriter(SelectorServer.Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Sends a message to the client
+         *
+         * @param request request being replied to
+         * @param message message to send
+         */
+        private void sendClientMessage(Request request, String message) {
+            Log.trace("Sending message \"{}\" to Client", message);
+            if (message.startsWith("ERROR_")) {
+                metrics.increment("errors." + message.substring("ERROR_".length()).toLowerCase());
+            }
+            connection.reply(request, message);
+
+            // A request is over with its last reply, which for stores comes after the DStores ACK
+            LatencyHistogram latency = requestLatency.get(request.getCommand());
+            if (latency != null && !message.startsWith(Protocol.STORE_TO_TOKEN + " ")
+                    && !message.startsWith(Protocol.STORE_BATCH_TO_TOKEN + " ")) {
+                latency.record(System.nanoTime() - request.getReceivedTime());
+            }
+        }
+
+        /**
+         * Handles a message sent by the client. Requests with IDs are handled concurrently and
+         * answered as they finish, so a client can send many without waiting for each reply.
+         * Requests without IDs are handled in order
+         *
+         * @param request message sent from client
+         */
+        public void handleMessage(Request request) {
+            if (request.getId() == 0) {
+                handleRequest(request);
+                return;
+            }
+
+            // Waiting here stops the connection being read, holding back a client which sends too many
+            pipelined.acquireUninterruptibly();
+            try {
+                handlers.execute(() -> {
+                    try {
+                        handleRequest(request);
+                    } finally {
+                        pipelined.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pipelined.release();
+                Log.error("Error in handling request: {}", e);
+            }
+        }
+
+        /**
+         * Handles a single request, answering STATS itself
+         *
+         * @param request message sent from client
+         */
+        private void handleRequest(Request request) {
+            Log.trace("Message: \"{}\" received from Client", request);
+            if (request.getCommand().equals(Protocol.STATS_TOKEN)) {
+                sendClientMessage(request, metrics.render());
+                return;
+            }
+
+            requestsInProgress.incrementAndGet();
+            try {
+                runRequest(request);
+            } finally {
+                requestsInProgress.decrementAndGet();
+            }
+        }
+
+        /**
+         * Runs a single request
+         *
+         * @param request message sent from client
+         */
+        private void runRequest(Request request) {
+            // Clients without request IDs load one file at a time, so a new message means the last load is over
+            if (request.getId() == 0) {
+                boolean reload = request.getCommand().equals(Protocol.RELOAD_TOKEN);
+                finishLoad(reload);
+                if (!reload) {
+                    // The client has moved on, so it will not reload any file it loaded before
+                    triedDStores.clear();
+                }
+            }
+
+            // Checked before anything is changed, as a binary frame can carry any filename
+            if (!request.hasValidArguments()) {
+                Log.warn("Client sent malformed arguments: {}", request);
+                sendClientMessage(request, Protocol.ERROR_MALFORMED_REQUEST_TOKEN);
+                return;
+            }
+
+            // Ensures there are enough connected DStores
+            if (dstores.size() < replicationFactor) {
+                sendClientMessage(request, Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN);
+                return;
+            }
+
+            switch (request.getCommand()) {
+                case Protocol.LIST_TOKEN:
+                    sendClientMessage(request, Protocol.LIST_TOKEN + " " + index.getAllFiles());
+                    break;
+                case Protocol.STORE_TOKEN:
+                    storeFile(request);
+                    break;
+                case Protocol.LOAD_TOKEN:
+                    resetCounter(request);
+                    loadFile(request);
+                    break;
+                case Protocol.RELOAD_TOKEN:
+                    reloadFile(request);
+                    break;
+                case Protocol.LOAD_ALL_TOKEN:
+                    loadFileFromAll(request);
+                    break;
+                case Protocol.REMOVE_TOKEN:
+                    deleteFile(request);
+                    break;
+                case Protocol.STORE_BATCH_TOKEN:
+                    storeFiles(request);
+                    break;
+                case Protocol.LOAD_BATCH_TOKEN:
+                    loadFiles(request);
+                    break;
+                case Protocol.REMOVE_BATCH_TOKEN:
+                    deleteFiles(request);
+                    break;
+            }
+        }
+
+        /**
+         * Records the end of the load the client was last sent to a DStore for
+         *
+         * @param failed whether the client could not load the file from the DStore
+         */
+        private synchronized void finishLoad(boolean failed) {
+            if (loadingPort < 0) {
+                return;
+            }
+            if (failed) {
+                replicaSelector.failed(loadingPort);
+                metrics.increment("dstore." + loadingPort + ".load_failures");
+            } else {
+                replicaSelector.finished(loadingPort);
+            }
+            loadingPort = -1;
+        }
+
+        /** Records the load the client was last sent to a DStore for as abandoned */
+        public synchronized void abandonLoad() {
+            if (loadingPort >= 0) {
+                replicaSelector.abandoned(loadingPort);
+                loadingPort = -1;
+            }
+        }
+
+        /**
+         * Reloads a file from a DStore which has not been tried yet
+         *
+         * @param request message sent by client
+         */
+        private void reloadFile(Request request) {
+            String filename = request.getField(1);
+            if (!index.isAvailable(filename)) {
+                sendClientMessage(request, Protocol.ERROR_FILE_DOES_NOT_EXIST_TOKEN);
+                return;
+            }
+
+            loadFile(request);
+        }
+
+        /**
+         * Forgets the DStores tried for loading a file
+         *
+         * @param request message sent by client
+         */
+        private void resetCounter(Request request) {
+            try {
+                String filename = request.getField(1);
+                triedDStores.put(filename, ConcurrentHashMap.newKeySet());
+            } catch (Exception e) {
+                Log.error("Client message is malformed");
+            }
+        }
+
+        /**
+         * Loads a file from the best DStore which has not been tried yet, sending the port to the
+         * user to load from
+         *
+         * @param request message sent by client
+         */
+        private void loadFile(Request request) {
+            try {
+                String filename = request.getField(1);
+                long size = index.getFileSize(filename);
+                if (!index.isAvailable(filename) || size < 0) {
+                    sendClientMessage(request, Protocol.ERROR_FILE_DOES_NOT_EXIST_TOKEN);
+                    return;
+                }
+
+                // Get all DStores that store the file
+                ArrayList<Integer> ports = index.getPortsWithFile(filename);
+                Set<Integer> tried = triedDStores.computeIfAbsent(filename, f -> ConcurrentHashMap.newKeySet());
+                int port = replicaSelector.choose(ports, tried);
+
+                // If enough reloads have been called that there are no DStores left to connect to
+                if (port < 0) {
+                    sendClientMessage(request, Protocol.ERROR_LOAD_TOKEN);
+                    triedDStores.remove(filename);
+                    return;
+                }
+
+                tried.add(port);
+                if (request.getId() == 0) {
+                    synchronized (this) {
+                        loadingPort = port;
+                    }
+                } else {
+                    // The end of a pipelined load cannot be told from the client's next message
+                    replicaSelector.abandoned(port);
+                }
+                sendClientMessage(request, Protocol.LOAD_FROM_TOKEN + " " + port + " " + size);
+            } catch (Exception e) {
+                Log.error("Error in getting filename");
+            }
+        }
+
+        /**
+         * Sends the client every DStore storing a file, best first, so it can load parts of the
+         * file from all of them at once
+         *
+         * @param request message sent by client
+         */
+        private void loadFileFromAll(Request request) {
+            try {
+                String filename = request.getField(1);
+                long size = index.getFileSize(filename);
+                if (!index.isAvailable(filename) || size < 0) {
+                    sendClientMessage(request, Protocol.ERROR_FILE_DOES_NOT_EXIST_TOKEN);
+                    return;
+                }
+
+                StringBuilder reply = new StringBuilder(Protocol.LOAD_FROM_ALL_TOKEN)
+                        .append(' ').append(size);
+                for (int port : replicaSelector.rank(index.getPortsWithFile(filename))) {
+                    reply.append(' ').append(port);
+                }
+                sendClientMessage(request, reply.toString());
+            } catch (Exception e) {
+                Log.error("Error in getting filename");
+            }
+        }
+
+        /**
+         * Stores a file sent by the client over R DStores
+         *
+         * @param request message sent from client
+         */
+        private void storeFile(Request request) {
+            try {
+                String filename = request.getField(1);
+                long filesize = Long.parseLong(request.getField(2));
+
+                if (!index.beginStore(filename)) {
+                    sendClientMessage(request, Protocol.ERROR_FILE_ALREADY_EXISTS_TOKEN);
+                    return;
+                }
+
+                // Get R DStores
+                List<Integer> ports = index.placeFile(filename, filesize, replicationFactor);
+                if (ports.isEmpty()) {
+                    index.removeFiles(filename);
+                    sendClientMessage(request, Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN);
+                    return;
+                }
+                StringBuilder sb = new StringBuilder();
+                for (Integer port : ports) {
+                    sb.append(" ").append(port);
+                }
+
+                // Checks to see if all DStores send an ACK back
+                AckCollector acks = expectAcks(ports, Protocol.STORE_ACK_TOKEN, filename);
+                sendClientMessage(request, Protocol.STORE_TO_TOKEN + sb);
+
+                handlers.execute(() -> {
+                    if (!awaitAcks(acks, "store")) {
+                        Log.warn("Not all DStores sent {} {} in time", Protocol.STORE_ACK_TOKEN, filename);
+                    }
+                    if (acks.getAckedPorts().size() == ports.size()) {
+                        index.completeStore(filename);
+                        sendClientMessage(request, Protocol.STORE_COMPLETE_TOKEN);
+                    } else {
+                        index.removeFiles(filename);
+                    }
+                });
+            } catch (Exception e) {
+                Log.error("Error in handling \"{}\"", request, e);
+            }
+        }
+
+        /**
+         * Registers an ACK expected from every DStore, before the DStores can send them
+         *
+         * @param ports ports of the DStores to wait for
+         * @param ackToken token of the ACK
+         * @param filename file being acknowledged
+         * @return collector which completes when every DStore has sent its ACK
+         */
+        private AckCollector expectAcks(List<Integer> ports, String ackToken, String filename) {
+            AckCollector acks = new AckCollector(ports.size(), timeout);
+            for (DstoreMessageWriter dstore : dstores) {
+                if (ports.contains(dstore.getPort())) {
+                    acks.expect(dstore.getPort(), dstore.expectMessage(ackToken, filename));
+                }
+            }
+            return acks;
+        }
+
+        /**
+         * Deletes a file across R DStores
+         *
+         * @param request message sent by client
+         */
+        private void deleteFile(Request request) {
+            try {
+                String filename = request.getField(1);
+                if (!index.beginRemove(filename)) {
+                    sendClientMessage(request, Protocol.ERROR_FILE_DOES_NOT_EXIST_TOKEN);
+                    return;
+                }
+
+                // Get all DStores storing file
+                ArrayList<Integer> ports = index.getPortsWithFile(filename);
+
+                // Send the REMOVE to every DStore at once, then listen for a REMOVE_ACK from each
+                AckCollector acks = expectAcks(ports, Protocol.REMOVE_ACK_TOKEN, filename);
+                for (DstoreMessageWriter dstore : dstores) {
+                    if (ports.contains(dstore.getPort())) {
+                        dstore.sendDStoreMessage(Protocol.REMOVE_TOKEN + " " + filename);
+                    }
+                }
+                if (!awaitAcks(acks, "remove")) {
+                    Log.warn("Not all DStores sent {} {} in time", Protocol.REMOVE_ACK_TOKEN, filename);
+                }
+
+                // If all ACKs were received, complete the remove
+                if (acks.getAckedPorts().size() == ports.size()) {
+                    index.completeRemove(filename);
+                    sendClientMessage(request, Protocol.REMOVE_COMPLETE_TOKEN);
+                }
+            } catch (Exception e) {
+                Log.error("Error in handling \"{}\"", request, e);
+            }
+        }
+
+        /**
+         * Stores many files as one unit. Every file is placed with one pass over the DStore loads,
+         * the DStores acknowledge the whole batch with one message each, and the batch completes
+         * with one write to the index log. Files which already exist are left out of the reply. The
+         * whole batch is checked before any file is started, so a malformed batch starts nothing
+         *
+         * @param request STORE_BATCH message, followed by filename and filesize pairs
+         */
+        private void storeFiles(Request request) {
+            try {
+                int fieldCount = request.getFieldCount();
+                long[] requestedSizes = new long[(fieldCount - 1) / 2];
+                boolean malformed = fieldCount < 3 || fieldCount % 2 == 0;
+                for (int i = 0; !malformed && i < requestedSizes.length; i++) {
+                    try {
+                        requestedSizes[i] = Long.parseLong(request.getField(2 * i + 2));
+                        malformed = requestedSizes[i] < 0;
+                    } catch (NumberFormatException e) {
+                        malformed = true;
+                    }
+                }
+                if (malformed) {
+                    Log.warn("Client sent a malformed batch: {}", request);
+                    sendClientMessage(request, Protocol.ERROR_MALFORMED_REQUEST_TOKEN);
+                    return;
+                }
+
+                ArrayList<String> filenames = new ArrayList<>();
+                ArrayList<Long> filesizes = new ArrayList<>();
+                for (int i = 0; i < requestedSizes.length; i++) {
+                    if (index.beginStore(request.getField(2 * i + 1))) {
+                        filenames.add(request.getField(2 * i + 1));
+                        filesizes.add(requestedSizes[i]);
+                    }
+                }
+                if (filenames.isEmpty()) {
+                    sendClientMessage(request, Protocol.ERROR_FILE_ALREADY_EXISTS_TOKEN);
+                    return;
+                }
+
+                List<List<Integer>> placements = index.placeFiles(filenames, filesizes, replicationFactor);
+                if (placements.isEmpty()) {
+                    filenames.forEach(index::removeFiles);
+                    sendClientMessage(request, Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN);
+                    return;
+                }
+
+                // Register every ACK before the client can send any file
+                ArrayList<AckCollector> acks = new ArrayList<>(filenames.size());
+                StringBuilder reply = new StringBuilder(Protocol.STORE_BATCH_TO_TOKEN);
+                for (int i = 0; i < filenames.size(); i++) {
+                    acks.add(expectAcks(placements.get(i), Protocol.STORE_ACK_TOKEN, filenames.get(i)));
+                    reply.append(' ').append(filenames.get(i)).append(' ');
+                    for (int j = 0; j < placements.get(i).size(); j++) {
+                        reply.append(j == 0 ? "" : ",").append(placements.get(i).get(j));
+                    }
+                }
+                sendClientMessage(request, reply.toString());
+
+                handlers.execute(() -> {
+                    ArrayList<String> stored = new ArrayList<>();
+                    for (int i = 0; i < filenames.size(); i++) {
+                        awaitAcks(acks.get(i), "store");
+                        if (acks.get(i).getAckedPorts().size() == placements.get(i).size()) {
+                            stored.add(filenames.get(i));
+                        } else {
+                            index.removeFiles(filenames.get(i));
+                        }
+                    }
+                    if (stored.size() < filenames.size()) {
+                        Log.warn("{} files of a batch were not acknowledged by every DStore in time", (filenames.size() - stored.size()));
+                    }
+                    index.completeStores(stored);
+                    sendClientMessage(request, Protocol.STORE_BATCH_COMPLETE_TOKEN + " " + String.join(" ", stored));
+                });
+            } catch (Exception e) {
+                Log.error("Error in storing a batch", e);
+            }
+        }
+
+        /**
+         * Sends the client the DStore to load each of many files from. Files which are not
+         * available are left out of the reply
+         *
+         * @param request LOAD_BATCH message, followed by filenames
+         */
+        private void loadFiles(Request request) {
+            StringBuilder reply = new StringBuilder(Protocol.LOAD_FROM_BATCH_TOKEN);
+            for (int i = 1; i < request.getFieldCount(); i++) {
+                String filename = request.getField(i);
+                long size = index.getFileSize(filename);
+                if (!index.isAvailable(filename) || size < 0) {
+                    continue;
+                }
+                int port = replicaSelector.choose(index.getPortsWithFile(filename), Set.of());
+                if (port < 0) {
+                    continue;
+                }
+                // The loads run while the client does other work, so their end is not known
+                replicaSelector.abandoned(port);
+
+                Set<Integer> tried = ConcurrentHashMap.newKeySet();
+                tried.add(port);
+                triedDStores.put(filename, tried);
+                reply.append(' ').append(filename).append(' ').append(port).append(' ').append(size);
+            }
+            sendClientMessage(request, reply.toString());
+        }
+
+        /**
+         * Removes many files as one unit, sending every DStore one message for all of its files.
+         * Files which are not available are left out of the reply
+         *
+         * @param request REMOVE_BATCH message, followed by filenames
+         */
+        private void deleteFiles(Request request) {
+            try {
+                ArrayList<String> filenames = new ArrayList<>();
+                for (int i = 1; i < request.getFieldCount(); i++) {
+                    filenames.add(request.getField(i));
+                }
+                List<String> removing = index.beginRemoves(filenames);
+                if (removing.isEmpty()) {
+                    sendClientMessage(request, Protocol.ERROR_FILE_DOES_NOT_EXIST_TOKEN);
+                    return;
+                }
+
+                // Group the files by DStore, registering every ACK before sending anything
+                HashMap<Integer, List<String>> filesByPort = new HashMap<>();
+                ArrayList<AckCollector> acks = new ArrayList<>(removing.size());
+                ArrayList<Integer> replicaCounts = new ArrayList<>(removing.size());
+                for (String filename : removing) {
+                    ArrayList<Integer> ports = index.getPortsWithFile(filename);
+                    acks.add(expectAcks(ports, Protocol.REMOVE_ACK_TOKEN, filename));
+                    replicaCounts.add(ports.size());
+                    ports.forEach(port -> filesByPort.computeIfAbsent(port, p -> new ArrayList<>()).add(filename));
+                }
+                for (DstoreMessageWriter dstore : dstores) {
+                    List<String> files = filesByPort.get(dstore.getPort());
+                    if (files != null) {
+                        dstore.sendDStoreMessage(Protocol.REMOVE_BATCH_TOKEN + " " + String.join(" ", files));
+                    }
+                }
+
+                ArrayList<String> acknowledged = new ArrayList<>();
+                for (int i = 0; i < removing.size(); i++) {
+                    awaitAcks(acks.get(i), "remove");
+                    if (acks.get(i).getAckedPorts().size() == replicaCounts.get(i)) {
+                        acknowledged.add(removing.get(i));
+                    }
+                }
+                List<String> removed = index.completeRemoves(acknowledged);
+                if (removed.size() < removing.size()) {
+                    Log.warn("{} files of a batch were not removed by every DStore in time", (removing.size() - removed.size()));
+                }
+                sendClientMessage(request, Protocol.REMOVE_BATCH_COMPLETE_TOKEN + " " + String.join(" ", removed));
+            } catch (Exception e) {
+                Log.error("Error in removing a batch", e);
+            }
+        }
+
+    }
+
+    /**
+     * A class used for handling DStore messages. A single reader per DStore parses every message
+     * once and routes it to the operation waiting for it, so operations on one DStore can overlap
+     */
+    public class DstoreMessageWriter implements Runnable {
+
+        /** Socket connection */
+        private final Socket socket;
+
+        /** Used to read messages sent from client */
+        private final BufferedReader messageReader;
+
+        /** Used to write messages to client */
+        private final PrintWriter messageWriter;
+
+        /** Operations waiting for a message from the DStore, keyed by (token, filename) */
+        private final ConcurrentHashMap<String, CompletableFuture<String>> pendingOperations =
+                new ConcurrentHashMap<>();
+
+        /** DStore port */
+        private int port = 0;
+
+        /** UNIX EPOCH time in milliseconds of the last message from the DStore */
+        private volatile long lastMessageTime = System.currentTimeMillis();
+
+        public DstoreMessageWriter(
+                Socket socket, BufferedReader messages, String line, PrintWriter messageWriter) {
+            this.socket = socket;
+            this.messageReader = messages;
+            this.messageWriter = messageWriter;
+            try {
+                this.port = Integer.parseInt(line.split(" ")[1]);
+            } catch (Exception e) {
+                Log.error("{}", e.getMessage());
+            }
+
+            handleMessage(line);
+        }
+
+        /** Reads every message sent by the DStore and handles it */
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = messageReader.readLine()) != null) handleMessage(line);
+                Log.debug("DStore: {} closed its connection", port);
+            } catch (Exception e) {
+                Log.warn("Lost connection to DStore: {} {}", port, e);
+            }
+            removeDStore(this);
+        }
+
+        /** Closes the connection, failing every operation waiting for the DStore */
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.error("Error in closing DStore connection: {}", e);
+            }
+            pendingOperations.values().forEach(operation -> operation.cancel(false));
+        }
+
+        /**
+         * Gets the time the DStore last sent a message
+         *
+         * @return UNIX EPOCH time in milliseconds
+         */
+        public long getLastMessageTime() {
+            return lastMessageTime;
+        }
+
+        /**
+         * Handles a DStore message
+         *
+         * @param message message sent from DStore
+         */
+        public void handleMessage(String message) {
+            Log.trace("Message: \"{}\" received from DStore", message);
+            lastMessageTime = System.currentTimeMillis();
+
+            int separator = message.indexOf(' ');
+            String token = separator < 0 ? message : message.substring(0, separator);
+            String argument = separator < 0 ? "" : message.substring(separator + 1);
+
+            switch (token) {
+                case Protocol.JOIN_TOKEN:
+                    CompletableFuture<String> list = expectMessage(Protocol.LIST_SIZES_TOKEN, "");
+                    handlers.execute(this);
+                    sendDStoreMessage(Protocol.LIST_SIZES_TOKEN);
+                    addFileToIndex(list);
+                    break;
+                case Protocol.STORE_ACK_TOKEN:
+                case Protocol.REMOVE_ACK_TOKEN:
+                    completeOperation(token, argument, argument);
+                    break;
+                case Protocol.ERROR_FILE_DOES_NOT_EXIST_TOKEN:
+                    // The DStore did not have the file being removed, so the remove is done
+                    completeOperation(Protocol.REMOVE_ACK_TOKEN, argument, argument);
+                    break;
+                case Protocol.STORE_ACK_BATCH_TOKEN:
+                    for (String filename : Request.split(argument)) {
+                        completeOperation(Protocol.STORE_ACK_TOKEN, filename, filename);
+                    }
+                    break;
+                case Protocol.REMOVE_ACK_BATCH_TOKEN:
+                    for (String filename : Request.split(argument)) {
+                        completeOperation(Protocol.REMOVE_ACK_TOKEN, filename, filename);
+                    }
+                    break;
+                case Protocol.PONG_TOKEN:
+                    // Only a sign of life, already recorded above
+                    break;
+                default:
+                    completeOperation(token, "", argument);
+                    break;
+            }
+        }
+
+        /**
+         * Registers an operation waiting for a message from the DStore. Must be called before the
+         * message can be sent by the DStore
+         *
+         * @param token token of the message
+         * @param filename file the message is about, empty if it is not about a single file
+         * @return future completed with the rest of the message, cancel it to stop waiting
+         */
+        public CompletableFuture<String> expectMessage(String token, String filename) {
+            String key = operationKey(token, filename);
+            CompletableFuture<String> operation = new CompletableFuture<>();
+            operation.whenComplete((argument, e) -> pendingOperations.remove(key, operation));
+            pendingOperations.put(key, operation);
+            return operation;
+        }
+
+        /**
+         * Completes the operation waiting for a message
+         *
+         * @param token token of the message
+         * @param filename file the message is about
+         * @param argument rest of the message
+         */
+        private void completeOperation(String token, String filename, String argument) {
+            CompletableFuture<String> operation = pendingOperations.get(operationKey(token, filename));
+            if (operation == null) {
+                Log.warn("No operation waiting for \"{}\" from DStore: {}", token + " " + argument, port);
+                return;
+            }
+            operation.complete(argument);
+        }
+
+        /**
+         * Creates the key of a waiting operation
+         *
+         * @param token token of the message
+         * @param filename file the message is about
+         * @return key
+         */
+        private String operationKey(String token, String filename) {
+            return token + " " + filename;
+        }
+
+        /**
+         * Send a message to the DStore
+         *
+         * @param message message to send
+         */
+        public void sendDStoreMessage(String message) {
+            Log.trace("Sending message \"{}\" to DStore: {}", message, port);
+            synchronized (messageWriter) {
+                messageWriter.println(message);
+                messageWriter.flush();
+            }
+        }
+
+        /**
+         * Add files sent from LIST_SIZES request to index
+         *
+         * @param list operation waiting for the LIST_SIZES reply
+         */
+        private void addFileToIndex(CompletableFuture<String> list) {
+            try {
+                String message = list.get(timeout, TimeUnit.MILLISECONDS);
+                LinkedHashMap<String, Long> files = new LinkedHashMap<>();
+
+                if (message.isEmpty()) {
+                    Log.info("DStore contains no files");
+                    index.addFiles(port, files);
+                    return;
+                }
+
+                String[] fields = message.split(" ");
+                for (int i = 0; i + 1 < fields.length; i += 2) {
+                    files.put(fields[i], Long.parseLong(fields[i + 1]));
+                }
+                index.addFiles(port, files);
+            } catch (TimeoutException e) {
+                // Timeout has occurred
+                list.cancel(false);
+            } catch (Exception e) {
+                Log.error("Error in splitting list message");
+            }
+        }
+
+        /**
+         * Gets the DStore port
+         *
+         * @return port
+         */
+        public int getPort() {
+            return port;
+        }
+    }
+}
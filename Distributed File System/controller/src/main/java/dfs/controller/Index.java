@@ -0,0 +1,854 @@
+package dfs.controller;
+
+import dfs.protocol.Log;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+public class Index {
+
+    /** States a file known to the index can be in */
+    public enum FileState {
+        /** The file is being sent to its DStores and cannot be loaded or removed yet */
+        STORE_IN_PROGRESS,
+        /** The file is stored on every DStore and can be listed, loaded and removed */
+        AVAILABLE,
+        /** The file is being removed from its DStores and can no longer be loaded */
+        REMOVE_IN_PROGRESS
+    }
+
+	/**
+	 * Contains the state of every file being stored, stored or being removed. Every change of state
+	 * is a compare-and-set on a single file, so operations on different files never wait on each other
+	 * filename -> state
+	 */
+	private final ConcurrentHashMap<String, FileState> fileStates = new ConcurrentHashMap<>();
+
+	/**
+	 * Contains all the DStores with what files they store
+	 * port -> filenames
+	 */
+	private final ConcurrentHashMap<Integer, Set<String>> dstoreFiles = new ConcurrentHashMap<>();
+
+	/**
+	 * Contains all the files with what DStores store them, always the inverse of dstoreFiles. Both
+	 * are only changed while the entry of the file is locked by compute
+	 * filename -> ports
+	 */
+	private final ConcurrentHashMap<String, Set<Integer>> fileReplicas = new ConcurrentHashMap<>();
+
+	/** Load of every DStore, used to place new files on the least loaded DStores. Guarded by itself */
+	private final LoadHeap loads = new LoadHeap();
+
+	/** Whether load is the amount of bytes stored rather than the amount of files */
+	private final boolean loadByBytes = "bytes".equals(System.getProperty("controller.placement"));
+
+	/** DStores chosen by the last placement, reused so placing a file does not allocate. Guarded by loads */
+	private int[] placement = new int[0];
+
+	/**
+	 * Stores the file sizes for each file, from the time it is placed
+	 * filename -> filesize
+	 */
+	private final ConcurrentHashMap<String, Long> fileSizes = new ConcurrentHashMap<>();
+
+    /** Log record setting the files of a DStore, followed by the port and filenames */
+    private static final String FILES_RECORD = "FILES";
+
+    /** Log record of a file size, followed by the size and filename */
+    private static final String SIZE_RECORD = "SIZE";
+
+    /** Log record of a file added to a DStore, followed by the port and filename */
+    private static final String ADD_RECORD = "ADD";
+
+    /** Log record of a file placed on DStores, followed by the size, comma separated ports and filename */
+    private static final String PLACE_RECORD = "PLACE";
+
+    /** Log record of a removed file, followed by the filename */
+    private static final String REMOVE_RECORD = "REMOVE";
+
+    /** Log record of a DStore which has failed, followed by the port */
+    private static final String EVICT_RECORD = "EVICT";
+
+    /** Log record of the DStores storing a file, followed by comma separated ports and filename */
+    private static final String REPLICAS_RECORD = "REPLICAS";
+
+    /** Log record of the state of a file, followed by the state and filename */
+    private static final String STATE_RECORD = "STATE";
+
+    /** Amount of log records after which a snapshot is taken */
+    private final long snapshotRecords = Long.getLong("controller.snapshotRecords", 100000);
+
+    /** Write-ahead log of every change, null if the index is only kept in memory */
+    private IndexLog log;
+
+    /** Whether the index was restored from its log, rather than rebuilt from what DStores store */
+    private volatile boolean restored = false;
+
+    /**
+     * Held shared while a change is applied and logged, and exclusively while a snapshot is taken,
+     * so a snapshot contains exactly the changes logged before it
+     */
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
+
+    /** Whether a snapshot is being written */
+    private final AtomicBoolean snapshotting = new AtomicBoolean(false);
+
+    /**
+     * Restores the index from a write-ahead log kept in a folder and logs every later change to it.
+     * Stores and removes which were in progress when the log ended are dropped, as the clients
+     * waiting for them are gone
+     *
+     * @param directory folder of the log
+     * @throws IOException if the log cannot be read or written
+     */
+    public void openLog(Path directory) throws IOException {
+        long startTime = System.currentTimeMillis();
+        IndexLog recoveredLog = new IndexLog(directory);
+        long records = recoveredLog.recover(this::applyRecord);
+
+        fileStates.forEach((filename, state) -> {
+            if (state != FileState.AVAILABLE) {
+                removeFiles(filename);
+            }
+        });
+
+        recoveredLog.open(snapshotState());
+        log = recoveredLog;
+        restored = records > 0;
+        Log.info("Recovered {} files from {} index log records in {}ms", fileStates.size(), records,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Applies a change and logs it
+     *
+     * @param record log record describing the change
+     * @param change change to apply
+     * @return sequence number of the record, 0 if the index is not logged
+     */
+    private long logChange(String record, Runnable change) {
+        return logChange(() -> {
+            change.run();
+            return record;
+        });
+    }
+
+    /**
+     * Applies a change and logs it
+     *
+     * @param change change to apply, returning the log record describing it
+     * @return sequence number of the record, 0 if the index is not logged
+     */
+    private long logChange(Supplier<String> change) {
+        return logChanges(() -> {
+            String record = change.get();
+            return record == null ? List.of() : List.of(record);
+        });
+    }
+
+    /**
+     * Applies a change made of many steps and logs a record for each
+     *
+     * @param change change to apply, returning the log records describing it
+     * @return sequence number of the last record, 0 if the index is not logged
+     */
+    private long logChanges(Supplier<List<String>> change) {
+        long sequence = 0;
+        logLock.readLock().lock();
+        try {
+            List<String> records = change.get();
+            if (log != null) {
+                for (String record : records) {
+                    sequence = log.append(record);
+                }
+            }
+        } finally {
+            logLock.readLock().unlock();
+        }
+
+        if (log != null && log.getRecordsSinceSnapshot() >= snapshotRecords
+                && snapshotting.compareAndSet(false, true)) {
+            Thread snapshotThread = new Thread(this::snapshot, "index-snapshot");
+            snapshotThread.setDaemon(true);
+            snapshotThread.start();
+        }
+        return sequence;
+    }
+
+    /**
+     * Changes the state of a file if it is in an expected state, logging the change
+     *
+     * @param filename name of file
+     * @param from expected state, null if the file must not be known yet
+     * @param to new state
+     * @param durable whether to return only once the change is on disk
+     * @return whether the file was in the expected state
+     */
+    private boolean transition(String filename, FileState from, FileState to, boolean durable) {
+        long sequence = logTransition(filename, from, to);
+        if (sequence < 0) {
+            return false;
+        }
+        if (durable) {
+            awaitLogged(sequence);
+        }
+        return true;
+    }
+
+    /**
+     * Changes the state of a file if it is in an expected state, logging the change without
+     * waiting for it to be on disk
+     *
+     * @param filename name of file
+     * @param from expected state, null if the file must not be known yet
+     * @param to new state
+     * @return sequence number of the record, -1 if the file was not in the expected state
+     */
+    private long logTransition(String filename, FileState from, FileState to) {
+        AtomicBoolean changed = new AtomicBoolean();
+        long sequence = logChange(() -> {
+            changed.set(from == null
+                    ? fileStates.putIfAbsent(filename, to) == null
+                    : fileStates.replace(filename, from, to));
+            return changed.get() ? STATE_RECORD + " " + to + " " + filename : null;
+        });
+        return changed.get() ? sequence : -1;
+    }
+
+    /**
+     * Waits until a logged change is on disk
+     *
+     * @param sequence sequence number of the record
+     */
+    private void awaitLogged(long sequence) {
+        if (log != null) {
+            log.awaitDurable(sequence);
+        }
+    }
+
+    /** Writes a snapshot of the index and starts a new log generation */
+    private void snapshot() {
+        try {
+            List<String> state;
+            long generation;
+            logLock.writeLock().lock();
+            try {
+                state = snapshotState();
+                generation = log.startGeneration();
+            } finally {
+                logLock.writeLock().unlock();
+            }
+            log.writeSnapshot(state, generation);
+        } catch (IOException e) {
+            Log.error("Error in writing index snapshot: {}", e);
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    /**
+     * Creates the log records which rebuild the current index
+     *
+     * @return log records
+     */
+    private List<String> snapshotState() {
+        ArrayList<String> records = new ArrayList<>();
+        fileSizes.forEach((filename, size) -> records.add(SIZE_RECORD + " " + size + " " + filename));
+        fileStates.forEach((filename, state) -> records.add(STATE_RECORD + " " + state + " " + filename));
+        dstoreFiles.forEach((port, files) -> records.add(FILES_RECORD + " " + port + (files.isEmpty() ? "" : " " + String.join(" ", files))));
+        return records;
+    }
+
+    /**
+     * Applies a log record while recovering
+     *
+     * @param record log record
+     */
+    private void applyRecord(String record) {
+        String[] fields = record.split(" ", 3);
+        switch (fields[0]) {
+            case FILES_RECORD:
+                ArrayList<String> files = new ArrayList<>();
+                if (fields.length > 2) {
+                    files.addAll(Arrays.asList(fields[2].split(" ")));
+                }
+                setDStoreFiles(Integer.parseInt(fields[1]), files);
+                break;
+            case SIZE_RECORD:
+                fileSizes.put(fields[2], Long.parseLong(fields[1]));
+                break;
+            case ADD_RECORD:
+                addReplica(Integer.parseInt(fields[1]), fields[2], getLoad(fields[2]));
+                break;
+            case PLACE_RECORD:
+                String[] placeFields = record.split(" ", 4);
+                fileSizes.put(placeFields[3], Long.parseLong(placeFields[1]));
+                fileStates.put(placeFields[3], FileState.STORE_IN_PROGRESS);
+                for (String port : placeFields[2].split(",")) {
+                    addReplica(Integer.parseInt(port), placeFields[3], getLoad(placeFields[3]));
+                }
+                break;
+            case REMOVE_RECORD:
+                removeFilesUnlogged(record.substring(REMOVE_RECORD.length() + 1));
+                break;
+            case STATE_RECORD:
+                fileStates.put(fields[2], FileState.valueOf(fields[1]));
+                break;
+            case EVICT_RECORD:
+                removeDStoreUnlogged(Integer.parseInt(fields[1]));
+                break;
+            case REPLICAS_RECORD:
+                Set<Integer> ports = new HashSet<>();
+                for (String port : fields[1].split(",")) {
+                    ports.add(Integer.parseInt(port));
+                }
+                setReplicasUnlogged(fields[2], ports);
+                break;
+        }
+    }
+
+    /**
+     * Adds a list of files to a DStore. Unless the index was restored from its log, files the index
+     * does not know are adopted as available with the size the DStore gives, so a Controller which
+     * lost its index rebuilds it from the DStores joining it
+     *
+     * @param port DStore port
+     * @param files filename -> filesize, in the order the DStore listed them
+     */
+    public void addFiles(int port, Map<String, Long> files) {
+        Log.info("Added {} files from port: {}", files.size(), port);
+        // Adopted files are available, so wait for them to be on disk as a completed store does
+        awaitLogged(logChanges(() -> {
+            ArrayList<String> records = new ArrayList<>();
+            if (!restored) {
+                files.forEach((filename, size) -> fileStates.compute(filename, (file, state) -> {
+                    if (state != null) {
+                        return state;
+                    }
+                    // The size is set first, as an available file must have one
+                    fileSizes.put(filename, size);
+                    records.add(SIZE_RECORD + " " + size + " " + filename);
+                    records.add(STATE_RECORD + " " + FileState.AVAILABLE + " " + filename);
+                    return FileState.AVAILABLE;
+                }));
+                if (!records.isEmpty()) {
+                    Log.info("Adopted {} unknown files from port: {}", records.size() / 2, port);
+                }
+            }
+
+            // Only connected DStores are used for placement, so only a joining DStore is added
+            synchronized (loads) {
+                loads.add(port);
+            }
+            setDStoreFiles(port, new ArrayList<>(files.keySet()));
+            records.add(FILES_RECORD + " " + port + (files.isEmpty() ? "" : " " + String.join(" ", files.keySet())));
+            return records;
+        }));
+    }
+
+    /**
+     * Replaces the files of a DStore in both directions of the index
+     *
+     * @param port DStore port
+     * @param files file names
+     */
+    private void setDStoreFiles(int port, List<String> files) {
+        Set<String> previousFiles = dstoreFiles.computeIfAbsent(port, p -> ConcurrentHashMap.newKeySet());
+        for (String filename : new ArrayList<>(previousFiles)) {
+            removeReplica(port, filename);
+        }
+        for (String filename : files) {
+            addReplica(port, filename, getLoad(filename));
+        }
+    }
+
+    /**
+     * Records a DStore storing a file in both directions of the index
+     *
+     * @param port DStore port
+     * @param filename file name
+     * @param load load to add to the DStore if it did not store the file yet
+     */
+    private void addReplica(int port, String filename, long load) {
+        fileReplicas.compute(filename, (file, replicas) -> {
+            if (replicas == null) {
+                replicas = ConcurrentHashMap.newKeySet();
+            }
+            if (dstoreFiles.computeIfAbsent(port, p -> ConcurrentHashMap.newKeySet()).add(file)) {
+                adjustLoad(port, load);
+            }
+            replicas.add(port);
+            return replicas;
+        });
+    }
+
+    /**
+     * Removes the record of a DStore storing a file in both directions of the index
+     *
+     * @param port DStore port
+     * @param filename file name
+     */
+    private void removeReplica(int port, String filename) {
+        fileReplicas.computeIfPresent(filename, (file, replicas) -> {
+            if (replicas.remove(port)) {
+                removeFromDStore(port, file);
+                adjustLoad(port, -getLoad(file));
+            }
+            return replicas.isEmpty() ? null : replicas;
+        });
+    }
+
+    /**
+     * Removes a file from the set of files of a DStore, if the DStore has not been removed
+     *
+     * @param port DStore port
+     * @param filename file name
+     */
+    private void removeFromDStore(int port, String filename) {
+        Set<String> files = dstoreFiles.get(port);
+        if (files != null) {
+            files.remove(filename);
+        }
+    }
+
+    /**
+     * Changes the load of a DStore, if it is connected
+     *
+     * @param port DStore port
+     * @param delta amount to add to the load
+     */
+    private void adjustLoad(int port, long delta) {
+        synchronized (loads) {
+            loads.adjust(port, delta);
+        }
+    }
+
+    /**
+     * Gets the load a file puts on every DStore storing it
+     *
+     * @param filename file name
+     * @return 1, or the size of the file if load is weighed by bytes
+     */
+    private long getLoad(String filename) {
+        return loadByBytes ? fileSizes.getOrDefault(filename, 0L) : 1;
+    }
+
+    /**
+     * Starts storing a file which is not known to the index yet
+     *
+     * @param filename name of file
+     * @return false if the file is already stored, being stored or being removed
+     */
+    public boolean beginStore(String filename) {
+        return transition(filename, null, FileState.STORE_IN_PROGRESS, false);
+    }
+
+    /**
+     * Makes a stored file available, returning once the change is on disk
+     *
+     * @param filename name of file
+     */
+    public void completeStore(String filename) {
+        transition(filename, FileState.STORE_IN_PROGRESS, FileState.AVAILABLE, true);
+    }
+
+    /**
+     * Makes many stored files available, returning once all the changes are on disk, so the
+     * batch waits for the log once
+     *
+     * @param filenames names of files
+     */
+    public void completeStores(List<String> filenames) {
+        long sequence = 0;
+        for (String filename : filenames) {
+            sequence = Math.max(sequence, logTransition(filename, FileState.STORE_IN_PROGRESS, FileState.AVAILABLE));
+        }
+        awaitLogged(sequence);
+    }
+
+    /**
+     * Starts removing many available files, returning once all the changes are on disk
+     *
+     * @param filenames names of files
+     * @return files which were available and are now being removed
+     */
+    public List<String> beginRemoves(List<String> filenames) {
+        ArrayList<String> removing = new ArrayList<>();
+        long sequence = 0;
+        for (String filename : filenames) {
+            long fileSequence = logTransition(filename, FileState.AVAILABLE, FileState.REMOVE_IN_PROGRESS);
+            if (fileSequence >= 0) {
+                removing.add(filename);
+                sequence = Math.max(sequence, fileSequence);
+            }
+        }
+        awaitLogged(sequence);
+        return removing;
+    }
+
+    /**
+     * Starts removing an available file, returning once the change is on disk
+     *
+     * @param filename name of file
+     * @return false if the file is not available
+     */
+    public boolean beginRemove(String filename) {
+        return transition(filename, FileState.AVAILABLE, FileState.REMOVE_IN_PROGRESS, true);
+    }
+
+    /**
+     * Removes a DStore which has failed, so it is no longer used for placing or loading files
+     *
+     * @param port DStore port
+     * @return files the DStore stored
+     */
+    public List<String> removeDStore(int port) {
+        ArrayList<String> files = new ArrayList<>();
+        logChange(EVICT_RECORD + " " + port, () -> files.addAll(removeDStoreUnlogged(port)));
+        return files;
+    }
+
+    /**
+     * Removes a DStore from placement and from the replicas of every file it stored
+     *
+     * @param port DStore port
+     * @return files the DStore stored
+     */
+    private List<String> removeDStoreUnlogged(int port) {
+        synchronized (loads) {
+            loads.remove(port);
+        }
+        Set<String> previousFiles = dstoreFiles.remove(port);
+        if (previousFiles == null) {
+            return List.of();
+        }
+
+        ArrayList<String> files = new ArrayList<>(previousFiles);
+        for (String filename : files) {
+            fileReplicas.computeIfPresent(filename, (file, replicas) -> {
+                replicas.remove(port);
+                return replicas.isEmpty() ? null : replicas;
+            });
+        }
+        return files;
+    }
+
+    /**
+     * Chooses the least loaded DStores to copy a file to, which do not store it yet. Their load is
+     * raised straight away, so files copied at the same time are spread out. The reservation ends
+     * with {@link #addReservedDStoreFile} once the copy is done, or {@link #cancelReservation}
+     *
+     * @param filename name of file
+     * @param count amount of DStores
+     * @return DStores, fewer than count if not enough DStores are connected
+     */
+    public List<Integer> reserveDStores(String filename, int count) {
+        Set<Integer> holders = fileReplicas.getOrDefault(filename, Set.of());
+        long load = getLoad(filename);
+        ArrayList<Integer> ports = new ArrayList<>(count);
+        synchronized (loads) {
+            int[] candidates = new int[count + holders.size()];
+            int found = loads.leastLoaded(candidates.length, candidates);
+            for (int i = 0; i < found && ports.size() < count; i++) {
+                if (!holders.contains(candidates[i])) {
+                    ports.add(candidates[i]);
+                    loads.adjust(candidates[i], load);
+                }
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * Adds a file copied to a DStore chosen by {@link #reserveDStores}
+     *
+     * @param port DStore port
+     * @param filename file name
+     */
+    public void addReservedDStoreFile(int port, String filename) {
+        logChange(ADD_RECORD + " " + port + " " + filename, () -> addReplica(port, filename, 0));
+    }
+
+    /**
+     * Gives back the load reserved by {@link #reserveDStores} for a copy which was not done
+     *
+     * @param port DStore port
+     * @param filename file name
+     */
+    public void cancelReservation(int port, String filename) {
+        adjustLoad(port, -getLoad(filename));
+    }
+
+    /**
+     * Adds a file to a DStore
+     *
+     * @param port DStore port
+     * @param filename file name
+     */
+    public void addDStoreFile(int port, String filename) {
+        logChange(ADD_RECORD + " " + port + " " + filename, () -> addReplica(port, filename, getLoad(filename)));
+    }
+
+    /**
+     * Removes a file from all hashmaps, returning once the change is on disk. Used to finish a
+     * remove or to abandon a store
+     *
+     * @param filename name of file
+     */
+    public void removeFiles(String filename) {
+        awaitLogged(logChange(REMOVE_RECORD + " " + filename, () -> removeFilesUnlogged(filename)));
+    }
+
+    /**
+     * Finishes removing a file, unless it is no longer being removed. Returns once the change is
+     * on disk
+     *
+     * @param filename name of file
+     * @return false if the file was not being removed
+     */
+    public boolean completeRemove(String filename) {
+        return !completeRemoves(List.of(filename)).isEmpty();
+    }
+
+    /**
+     * Finishes removing many files, skipping files no longer being removed. Returns once all the
+     * changes are on disk
+     *
+     * @param filenames names of files
+     * @return files which were removed
+     */
+    public List<String> completeRemoves(List<String> filenames) {
+        ArrayList<String> removed = new ArrayList<>();
+        awaitLogged(logChanges(() -> {
+            ArrayList<String> records = new ArrayList<>();
+            for (String filename : filenames) {
+                fileStates.computeIfPresent(filename, (file, state) -> {
+                    if (state != FileState.REMOVE_IN_PROGRESS) {
+                        return state;
+                    }
+                    removeFileData(file);
+                    removed.add(file);
+                    records.add(REMOVE_RECORD + " " + file);
+                    return null;
+                });
+            }
+            return records;
+        }));
+        return removed;
+    }
+
+    /**
+     * Removes a file from all hashmaps without logging it. The state is removed last and while the
+     * rest is removed, so the file cannot be stored again until it is completely gone
+     *
+     * @param filename name of file
+     */
+    private void removeFilesUnlogged(String filename) {
+        fileStates.compute(filename, (file, state) -> {
+            removeFileData(file);
+            return null;
+        });
+    }
+
+    /**
+     * Removes the replicas, size and reload count of a file
+     *
+     * @param filename name of file
+     */
+    private void removeFileData(String filename) {
+        fileReplicas.computeIfPresent(filename, (file, replicas) -> {
+            long load = getLoad(file);
+            for (int port : replicas) {
+                removeFromDStore(port, file);
+                adjustLoad(port, -load);
+            }
+            return null;
+        });
+        fileSizes.remove(filename);
+    }
+
+    /**
+     * Replaces the DStores storing a file, after files have been moved between DStores. Only done
+     * while the file is available, with its state locked, so a remove starting at the same time
+     * never has its replicas changed under it
+     *
+     * @param filename name of file
+     * @param ports DStore ports, not empty
+     * @return whether the file was available and its replicas replaced
+     */
+    public boolean setReplicas(String filename, Set<Integer> ports) {
+        StringJoiner record = new StringJoiner(",", REPLICAS_RECORD + " ", " " + filename);
+        ports.forEach(port -> record.add(String.valueOf(port)));
+        AtomicBoolean available = new AtomicBoolean();
+        logChange(() -> {
+            fileStates.computeIfPresent(filename, (file, state) -> {
+                if (state == FileState.AVAILABLE) {
+                    setReplicasUnlogged(file, ports);
+                    available.set(true);
+                }
+                return state;
+            });
+            return available.get() ? record.toString() : null;
+        });
+        return available.get();
+    }
+
+    /**
+     * Replaces the DStores storing a file in both directions of the index
+     *
+     * @param filename name of file
+     * @param ports DStore ports
+     */
+    private void setReplicasUnlogged(String filename, Set<Integer> ports) {
+        long load = getLoad(filename);
+        fileReplicas.compute(filename, (file, replicas) -> {
+            if (replicas == null) {
+                replicas = ConcurrentHashMap.newKeySet();
+            }
+            for (int port : new ArrayList<>(replicas)) {
+                if (!ports.contains(port)) {
+                    replicas.remove(port);
+                    removeFromDStore(port, file);
+                    adjustLoad(port, -load);
+                }
+            }
+            for (int port : ports) {
+                if (replicas.add(port) && dstoreFiles.computeIfAbsent(port, p -> ConcurrentHashMap.newKeySet()).add(file)) {
+                    adjustLoad(port, load);
+                }
+            }
+            return replicas.isEmpty() ? null : replicas;
+        });
+    }
+
+    /**
+     * Gets the state of every file known to the index
+     *
+     * @return filename -> state
+     */
+    public Map<String, FileState> getFileStates() {
+        return new HashMap<>(fileStates);
+    }
+
+    /**
+     * Gets all files for the LIST token
+     *
+     * @return list of all files
+     */
+    public String getAllFiles() {
+        StringJoiner files = new StringJoiner(" ");
+        fileStates.forEach((filename, state) -> {
+            if (state == FileState.AVAILABLE) {
+                files.add(filename);
+            }
+        });
+        return files.toString();
+    }
+
+    /**
+     * Get all DStores with a file
+     *
+     * @param filename name of file
+     * @return List of all DStores
+     */
+    public ArrayList<Integer> getPortsWithFile(String filename) {
+        Set<Integer> replicas = fileReplicas.get(filename);
+        return replicas == null ? new ArrayList<>() : new ArrayList<>(replicas);
+    }
+
+    /**
+     * Places a file being stored on the R least loaded DStores
+     *
+     * @param filename name of file
+     * @param filesize size of file
+     * @param R Replication Factor
+     * @return List of DStores, empty if there are fewer than R DStores
+     */
+    public List<Integer> placeFile(String filename, long filesize, int R) {
+        List<List<Integer>> placements = placeFiles(List.of(filename), List.of(filesize), R);
+        return placements.isEmpty() ? new ArrayList<>() : placements.get(0);
+    }
+
+    /**
+     * Places many files being stored, each on the R least loaded DStores, taking the loads lock
+     * once for the whole batch
+     *
+     * @param filenames names of files
+     * @param filesizes sizes of the files, in the same order
+     * @param R Replication Factor
+     * @return DStores of every file in order, empty if there are fewer than R DStores
+     */
+    public List<List<Integer>> placeFiles(List<String> filenames, List<Long> filesizes, int R) {
+        ArrayList<List<Integer>> placements = new ArrayList<>(filenames.size());
+        logChanges(() -> {
+            for (int i = 0; i < filenames.size(); i++) {
+                fileSizes.put(filenames.get(i), filesizes.get(i));
+            }
+
+            // Take the load of every file on at once, so concurrent placements see it
+            synchronized (loads) {
+                if (loads.size() < R) {
+                    return List.of();
+                }
+                if (placement.length < R) {
+                    placement = new int[R];
+                }
+                for (String filename : filenames) {
+                    long load = getLoad(filename);
+                    ArrayList<Integer> ports = new ArrayList<>(R);
+                    loads.leastLoaded(R, placement);
+                    for (int i = 0; i < R; i++) {
+                        loads.adjust(placement[i], load);
+                        ports.add(placement[i]);
+                    }
+                    placements.add(ports);
+                }
+            }
+
+            ArrayList<String> records = new ArrayList<>(filenames.size());
+            for (int f = 0; f < filenames.size(); f++) {
+                List<Integer> ports = placements.get(f);
+                StringBuilder record = new StringBuilder(PLACE_RECORD).append(' ').append(filesizes.get(f)).append(' ');
+                for (int i = 0; i < R; i++) {
+                    addReplica(ports.get(i), filenames.get(f), 0);
+                    record.append(i == 0 ? "" : ",").append(ports.get(i));
+                }
+                records.add(record.append(' ').append(filenames.get(f)).toString());
+            }
+            return records;
+        });
+        return placements;
+    }
+
+    /**
+     * Checks if a file is stored and can be loaded or removed
+     *
+     * @param filename file name
+     * @return bool
+     */
+    public boolean isAvailable(String filename) {
+        return fileStates.get(filename) == FileState.AVAILABLE;
+    }
+
+    /**
+     * Gets the file size of a file
+     *
+     * @param filename name of file
+     * @return size of file in bytes, -1 if the file is not known, as it may be removed at any time
+     */
+    public long getFileSize(String filename) {
+        return fileSizes.getOrDefault(filename, -1L);
+    }
+}
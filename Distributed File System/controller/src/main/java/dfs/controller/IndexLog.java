@@ -0,0 +1,357 @@
+package dfs.controller;
+
+import dfs.protocol.Log;
+import dfs.protocol.RecordCodec;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A write-ahead log of Index changes with compact snapshots. Records are appended to a buffer and
+ * written by a single flusher thread, which forces every batch to disk with one fsync (group
+ * commit). Each snapshot starts a new log generation, so older logs can be deleted once the
+ * snapshot is on disk
+ */
+public class IndexLog {
+
+    /** Header record of a snapshot, followed by the generation of the log continuing it */
+    private static final String GENERATION_RECORD = "GENERATION";
+
+    /** Folder holding the snapshot and logs */
+    private final Path directory;
+
+    /** Location of the snapshot */
+    private final Path snapshot;
+
+    /** Records appended but not yet written */
+    private StringBuilder pending = new StringBuilder();
+
+    /** Sequence number of the last appended record */
+    private long appendedSequence = 0;
+
+    /** Sequence number of the last record forced to disk */
+    private long durableSequence = 0;
+
+    /** Amount of records appended since the last snapshot */
+    private long recordsSinceSnapshot = 0;
+
+    /** Generation of the log being appended to */
+    private long generation = 0;
+
+    /** Log being appended to. Only switched while holding flushLock */
+    private FileChannel writer;
+
+    /**
+     * Held while a batch is taken and written, and while the log is switched, so every batch is
+     * written to the generation it was appended in. Taken before the lock on this
+     */
+    private final Object flushLock = new Object();
+
+    /** First error in writing the log, after which no record is acknowledged as durable */
+    private IOException failure;
+
+    /**
+     * Creates a log kept in a folder
+     *
+     * @param directory folder for the snapshot and logs, created if it does not exist
+     * @throws IOException if the folder cannot be created
+     */
+    public IndexLog(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.snapshot = directory.resolve("index.snapshot");
+    }
+
+    /**
+     * Replays the snapshot and every later log, in order. A damaged record ends the log it is in
+     *
+     * @param replay receives every record
+     * @return amount of records replayed
+     * @throws IOException if the files cannot be read
+     */
+    public synchronized long recover(Consumer<String> replay) throws IOException {
+        long records = 0;
+        long snapshotGeneration = 0;
+
+        if (Files.exists(snapshot)) {
+            List<String> snapshotRecords = readRecords(snapshot);
+            if (!snapshotRecords.isEmpty() && snapshotRecords.get(0).startsWith(GENERATION_RECORD + " ")) {
+                snapshotGeneration = Long.parseLong(snapshotRecords.get(0).substring(GENERATION_RECORD.length() + 1));
+                for (String record : snapshotRecords.subList(1, snapshotRecords.size())) {
+                    replay.accept(record);
+                    records++;
+                }
+            } else {
+                Log.warn("Index snapshot is damaged, ignoring it");
+            }
+        }
+
+        generation = snapshotGeneration;
+        for (long logGeneration : listLogGenerations()) {
+            if (logGeneration < snapshotGeneration) {
+                continue;
+            }
+            for (String record : readRecords(getLogPath(logGeneration))) {
+                replay.accept(record);
+                records++;
+            }
+            generation = Math.max(generation, logGeneration);
+        }
+        return records;
+    }
+
+    /**
+     * Writes a snapshot of the current state and starts the flusher thread
+     *
+     * @param state records which rebuild the current state
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void open(List<String> state) throws IOException {
+        writeSnapshot(state, startGeneration());
+
+        Thread flusher = new Thread(this::flushLoop, "index-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Appends a record without waiting for it to be written
+     *
+     * @param record record, without line terminators
+     * @return sequence number of the record
+     */
+    public synchronized long append(String record) {
+        if (failure == null) {
+            pending.append(RecordCodec.encode(record));
+        }
+        recordsSinceSnapshot++;
+        notifyAll();
+        return ++appendedSequence;
+    }
+
+    /**
+     * Waits until a record has been forced to disk
+     *
+     * @param sequence sequence number of the record
+     * @throws UncheckedIOException if the log could not be written, so the record may be lost
+     */
+    public synchronized void awaitDurable(long sequence) {
+        while (durableSequence < sequence) {
+            if (failure != null) {
+                throw new UncheckedIOException("Index log failed, record " + sequence + " may be lost", failure);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the amount of records appended since the last snapshot
+     *
+     * @return amount of records
+     */
+    public synchronized long getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    /**
+     * Writes every buffered record to the current log, then starts a new log generation. Must be
+     * called while the state is not being changed, so the snapshot which follows matches the end
+     * of the previous generation
+     *
+     * @return generation the snapshot has to be written for
+     * @throws IOException if the new log cannot be created
+     */
+    public long startGeneration() throws IOException {
+        synchronized (flushLock) {
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (writer != null) {
+                    // The buffered records are forced to the previous log, which is only deleted
+                    // once the snapshot covering it is on disk
+                    try {
+                        write(writer, pending);
+                        writer.force(false);
+                        writer.close();
+                    } catch (IOException e) {
+                        fail(e);
+                        throw e;
+                    }
+                    durableSequence = appendedSequence;
+                    notifyAll();
+                }
+
+                generation++;
+                writer = FileChannel.open(getLogPath(generation), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                recordsSinceSnapshot = 0;
+                return generation;
+            }
+        }
+    }
+
+    /**
+     * Atomically replaces the snapshot, then deletes the logs it covers
+     *
+     * @param state records which rebuild the state at the start of the generation
+     * @param snapshotGeneration generation continuing the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot(List<String> state, long snapshotGeneration) throws IOException {
+        Path temporary = directory.resolve("index.snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder records = new StringBuilder(RecordCodec.encode(GENERATION_RECORD + " " + snapshotGeneration));
+            for (String record : state) {
+                records.append(RecordCodec.encode(record));
+                if (records.length() >= 64 * 1024) {
+                    write(channel, records);
+                }
+            }
+            write(channel, records);
+            channel.force(true);
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (long logGeneration : listLogGenerations()) {
+            if (logGeneration < snapshotGeneration) {
+                Files.deleteIfExists(getLogPath(logGeneration));
+            }
+        }
+    }
+
+    /**
+     * Writes and forces batches of appended records to disk, until the JVM exits or a batch cannot
+     * be written. A failed batch is never acknowledged, and neither is any later record, as the log
+     * would have a gap
+     */
+    private void flushLoop() {
+        while (true) {
+            synchronized (this) {
+                while (pending.length() == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+
+            synchronized (flushLock) {
+                StringBuilder batch;
+                long batchSequence;
+                synchronized (this) {
+                    batch = pending;
+                    batchSequence = appendedSequence;
+                    pending = new StringBuilder();
+                }
+
+                // The log cannot be switched until the batch is on disk
+                try {
+                    write(writer, batch);
+                    writer.force(false);
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+
+                synchronized (this) {
+                    durableSequence = Math.max(durableSequence, batchSequence);
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops acknowledging records after an error in writing the log, failing every waiter
+     *
+     * @param e error
+     */
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            Log.error("Error in writing index log, no further changes will be acknowledged: {}", e);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Writes and clears a buffer of records
+     *
+     * @param channel file to write to
+     * @param records encoded records
+     */
+    private static void write(FileChannel channel, StringBuilder records) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        records.setLength(0);
+    }
+
+    /**
+     * Reads every record of a file up to the first damaged one
+     *
+     * @param file file to read
+     * @return records
+     */
+    private static List<String> readRecords(Path file) throws IOException {
+        ArrayList<String> records = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String record = RecordCodec.decode(line);
+                if (record == null) {
+                    Log.warn("Damaged record in {}, dropping the rest of it", file.getFileName());
+                    break;
+                }
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Lists the generations of all logs in the folder, in order
+     *
+     * @return generations
+     */
+    private List<Long> listLogGenerations() throws IOException {
+        ArrayList<Long> generations = new ArrayList<>();
+        try (var files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.matches("index\\.log\\.\\d+"))
+                    .forEach(name -> generations.add(Long.parseLong(name.substring("index.log.".length()))));
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    /**
+     * Gets the location of a log
+     *
+     * @param logGeneration generation of the log
+     * @return path
+     */
+    private Path getLogPath(long logGeneration) {
+        return directory.resolve("index.log." + logGeneration);
+    }
+}
@@ -0,0 +1,198 @@
+package dfs.controller;
+
+import java.util.Arrays;
+
+/**
+ * An indexed binary min-heap of DStores ordered by load. The position of every DStore in the heap
+ * is kept in an array indexed by port, so the load of a DStore can be changed in O(log N), and the
+ * R least loaded DStores are found in O(R log N) without allocating
+ */
+public class LoadHeap {
+
+    /** Amount of possible ports */
+    private static final int PORTS = 65536;
+
+    /** Ports in heap order */
+    private int[] heap = new int[16];
+
+    /** Amount of DStores in the heap */
+    private int size = 0;
+
+    /** Position of every port in the heap, -1 if it is not in the heap */
+    private final int[] positions = new int[PORTS];
+
+    /** Load of every port */
+    private final long[] loads = new long[PORTS];
+
+    public LoadHeap() {
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+     * Adds a DStore with no load, if it is not already in the heap
+     *
+     * @param port DStore port
+     */
+    public void add(int port) {
+        if (contains(port)) {
+            return;
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        loads[port] = 0;
+        place(size++, port);
+        siftUp(positions[port]);
+    }
+
+    /**
+     * Removes a DStore from the heap
+     *
+     * @param port DStore port
+     */
+    public void remove(int port) {
+        int position = positions[port];
+        if (position < 0) {
+            return;
+        }
+        positions[port] = -1;
+        size--;
+        if (position < size) {
+            place(position, heap[size]);
+            siftDown(position);
+            siftUp(position);
+        }
+    }
+
+    /**
+     * Checks if a DStore is in the heap
+     *
+     * @param port DStore port
+     * @return boolean
+     */
+    public boolean contains(int port) {
+        return positions[port] >= 0;
+    }
+
+    /**
+     * Changes the load of a DStore
+     *
+     * @param port DStore port
+     * @param delta amount to add to the load, negative to reduce it
+     */
+    public void adjust(int port, long delta) {
+        int position = positions[port];
+        if (position < 0 || delta == 0) {
+            return;
+        }
+        loads[port] += delta;
+        if (delta > 0) {
+            siftDown(position);
+        } else {
+            siftUp(position);
+        }
+    }
+
+    /**
+     * Gets the load of a DStore
+     *
+     * @param port DStore port
+     * @return load
+     */
+    public long getLoad(int port) {
+        return loads[port];
+    }
+
+    /**
+     * Gets the least loaded DStore
+     *
+     * @return port, -1 if the heap is empty
+     */
+    public int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    /**
+     * Gets the amount of DStores in the heap
+     *
+     * @return amount of DStores
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the least loaded DStores, without changing their load
+     *
+     * @param R amount of DStores to find
+     * @param selected array of at least R elements to write the ports to, least loaded first
+     * @return amount of DStores found, less than R if the heap is smaller
+     */
+    public int leastLoaded(int R, int[] selected) {
+        int found = Math.min(R, size);
+
+        // Take the minimum off the heap R times, then put every DStore taken back
+        for (int i = 0; i < found; i++) {
+            selected[i] = heap[0];
+            remove(heap[0]);
+        }
+        for (int i = 0; i < found; i++) {
+            place(size++, selected[i]);
+            siftUp(size - 1);
+        }
+        return found;
+    }
+
+    /**
+     * Moves a DStore up the heap until its parent has less load
+     *
+     * @param position position of the DStore
+     */
+    private void siftUp(int position) {
+        int port = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (loads[heap[parent]] <= loads[port]) {
+                break;
+            }
+            place(position, heap[parent]);
+            position = parent;
+        }
+        place(position, port);
+    }
+
+    /**
+     * Moves a DStore down the heap until its children have more load
+     *
+     * @param position position of the DStore
+     */
+    private void siftDown(int position) {
+        int port = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && loads[heap[child + 1]] < loads[heap[child]]) {
+                child++;
+            }
+            if (loads[port] <= loads[heap[child]]) {
+                break;
+            }
+            place(position, heap[child]);
+            position = child;
+        }
+        place(position, port);
+    }
+
+    /**
+     * Puts a DStore at a position in the heap
+     *
+     * @param position position in the heap
+     * @param port DStore port
+     */
+    private void place(int position, int port) {
+        heap[position] = port;
+        positions[port] = position;
+    }
+}
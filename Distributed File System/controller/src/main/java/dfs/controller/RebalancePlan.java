@@ -0,0 +1,357 @@
+package dfs.controller;
+
+import dfs.protocol.Protocol;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Works out the fewest file copies and removals which leave every available file on R DStores and
+ * every DStore storing between floor(R * F / N) and ceil(R * F / N) files, starting from the files
+ * each DStore says it stores. The files of every DStore and the loads are indexed, so each copy or
+ * move is planned in O(R + log N) rather than by scanning every file
+ */
+public class RebalancePlan {
+
+    /** port -> filename -> ports to send the file to */
+    private final Map<Integer, Map<String, List<Integer>>> sends = new HashMap<>();
+
+    /** filename -> port receiving the file -> port sending it, the inverse of sends */
+    private final Map<String, Map<Integer, Integer>> senders = new HashMap<>();
+
+    /** port -> filenames to remove */
+    private final Map<Integer, Set<String>> removes = new HashMap<>();
+
+    /** filename -> ports storing the file once the plan is done, for every available file */
+    private final Map<String, Set<Integer>> replicas = new HashMap<>();
+
+    /** port -> available files stored once the plan is done, the inverse of replicas */
+    private final Map<Integer, Set<String>> dstoreFiles = new HashMap<>();
+
+    /** Amount of files every DStore stores once the plan is done, least loaded first */
+    private final LoadHeap leastLoaded = new LoadHeap();
+
+    /** Negated amount of files every DStore stores once the plan is done, most loaded first */
+    private final LoadHeap mostLoaded = new LoadHeap();
+
+    /** Amount of available files stored by no DStore */
+    private int lostFiles = 0;
+
+    /**
+     * Creates a plan. Files which are neither available nor being removed are left where they are
+     * and count towards the load of their DStores: they are being stored, or unknown to the index,
+     * which may have lost them rather than the DStore holding them by mistake
+     *
+     * @param listed port -> files listed by every DStore taking part
+     * @param availableFiles files which should be on R DStores
+     * @param removingFiles files being removed, which should be on no DStore
+     * @param R Replication Factor
+     */
+    public RebalancePlan(Map<Integer, Set<String>> listed, Set<String> availableFiles,
+            Set<String> removingFiles, int R) {
+        listed.keySet().forEach(port -> {
+            leastLoaded.add(port);
+            mostLoaded.add(port);
+            dstoreFiles.put(port, new LinkedHashSet<>());
+        });
+
+        // Start from what every DStore stores, removing files which are being removed
+        listed.forEach((port, files) -> {
+            for (String filename : files) {
+                if (availableFiles.contains(filename)) {
+                    replicas.computeIfAbsent(filename, f -> new TreeSet<>()).add(port);
+                    dstoreFiles.get(port).add(filename);
+                    adjustLoad(port, 1);
+                } else if (removingFiles.contains(filename)) {
+                    removes.computeIfAbsent(port, p -> new LinkedHashSet<>()).add(filename);
+                } else {
+                    adjustLoad(port, 1);
+                }
+            }
+        });
+
+        int[] candidates = new int[0];
+        for (String filename : availableFiles) {
+            Set<Integer> ports = replicas.get(filename);
+            if (ports == null) {
+                lostFiles++;
+                continue;
+            }
+            while (ports.size() > R) {
+                removeReplica(filename, mostLoaded(ports));
+            }
+            if (ports.size() < R) {
+                int source = leastLoaded(ports);
+                if (candidates.length < R + ports.size()) {
+                    candidates = new int[R + ports.size()];
+                }
+                // The least loaded DStores not storing the file yet are among the R + ports least loaded
+                int found = leastLoaded.leastLoaded(R + ports.size(), candidates);
+                for (int i = 0; i < found && ports.size() < R; i++) {
+                    if (!ports.contains(candidates[i])) {
+                        addReplica(filename, source, candidates[i]);
+                    }
+                }
+            }
+        }
+
+        balance(R);
+    }
+
+    /**
+     * Moves files from the most to the least loaded DStore until every DStore is within the
+     * bounds. Every move lowers the spread of loads, so this ends
+     *
+     * @param R Replication Factor
+     */
+    private void balance(int R) {
+        if (leastLoaded.size() == 0) {
+            return;
+        }
+        int files = replicas.size();
+        int lower = R * files / leastLoaded.size();
+        int upper = (R * files + leastLoaded.size() - 1) / leastLoaded.size();
+
+        while (true) {
+            int max = mostLoaded.peek();
+            int min = leastLoaded.peek();
+            if (getLoad(max) <= upper && getLoad(min) >= lower) {
+                return;
+            }
+            if (getLoad(max) - getLoad(min) < 2 || !moveFile(max, min)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves one file which is not on the destination from a DStore to another
+     *
+     * @param from DStore to take the file from
+     * @param to DStore to move the file to
+     * @return false if every file of the source is already on the destination
+     */
+    private boolean moveFile(int from, int to) {
+        Set<String> destinationFiles = dstoreFiles.get(to);
+        for (String filename : dstoreFiles.get(from)) {
+            if (destinationFiles.contains(filename)) {
+                continue;
+            }
+
+            Map<Integer, Integer> fileSenders = senders.get(filename);
+            Integer sender = fileSenders == null ? null : fileSenders.remove(from);
+            if (sender != null) {
+                // The file was going to be sent to the source, send it to the destination instead
+                List<Integer> destinations = sends.get(sender).get(filename);
+                destinations.set(destinations.indexOf(from), to);
+                fileSenders.put(to, sender);
+                moveReplica(filename, from, to);
+            } else {
+                addReplica(filename, from, to);
+                removeReplica(filename, from);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Plans a copy of a file. If the receiving DStore was going to remove the file, it keeps it
+     * instead, as DStores remove files only after sending theirs
+     *
+     * @param filename name of file
+     * @param from DStore sending the file
+     * @param to DStore receiving the file
+     */
+    private void addReplica(String filename, int from, int to) {
+        Set<String> removing = removes.get(to);
+        if (removing != null && removing.remove(filename)) {
+            if (removing.isEmpty()) {
+                removes.remove(to);
+            }
+        } else {
+            sends.computeIfAbsent(from, p -> new LinkedHashMap<>())
+                    .computeIfAbsent(filename, f -> new ArrayList<>())
+                    .add(to);
+            senders.computeIfAbsent(filename, f -> new HashMap<>()).put(to, from);
+        }
+        replicas.get(filename).add(to);
+        dstoreFiles.get(to).add(filename);
+        adjustLoad(to, 1);
+    }
+
+    /**
+     * Plans the removal of a file from a DStore
+     *
+     * @param filename name of file
+     * @param port DStore port
+     */
+    private void removeReplica(String filename, int port) {
+        removes.computeIfAbsent(port, p -> new LinkedHashSet<>()).add(filename);
+        replicas.get(filename).remove(port);
+        dstoreFiles.get(port).remove(filename);
+        adjustLoad(port, -1);
+    }
+
+    /**
+     * Moves a planned replica of a file to another DStore
+     *
+     * @param filename name of file
+     * @param from DStore the file was going to be on
+     * @param to DStore the file is going to be on instead
+     */
+    private void moveReplica(String filename, int from, int to) {
+        Set<Integer> ports = replicas.get(filename);
+        ports.remove(from);
+        ports.add(to);
+        dstoreFiles.get(from).remove(filename);
+        dstoreFiles.get(to).add(filename);
+        adjustLoad(from, -1);
+        adjustLoad(to, 1);
+    }
+
+    /**
+     * Changes the amount of files a DStore stores once the plan is done
+     *
+     * @param port DStore port
+     * @param delta amount of files to add, negative to take away
+     */
+    private void adjustLoad(int port, int delta) {
+        leastLoaded.adjust(port, delta);
+        mostLoaded.adjust(port, -delta);
+    }
+
+    /**
+     * Gets the amount of files a DStore stores once the plan is done
+     *
+     * @param port DStore port
+     * @return amount of files
+     */
+    private long getLoad(int port) {
+        return leastLoaded.getLoad(port);
+    }
+
+    /**
+     * Gets the most loaded of a set of DStores
+     *
+     * @param ports DStore ports
+     * @return port
+     */
+    private int mostLoaded(Set<Integer> ports) {
+        int most = -1;
+        for (int port : ports) {
+            if (most < 0 || getLoad(port) > getLoad(most)) {
+                most = port;
+            }
+        }
+        return most;
+    }
+
+    /**
+     * Gets the least loaded of a set of DStores
+     *
+     * @param ports DStore ports
+     * @return port
+     */
+    private int leastLoaded(Set<Integer> ports) {
+        int least = -1;
+        for (int port : ports) {
+            if (least < 0 || getLoad(port) < getLoad(least)) {
+                least = port;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * Checks if the plan has nothing to do
+     *
+     * @return boolean
+     */
+    public boolean isEmpty() {
+        return sends.isEmpty() && removes.isEmpty();
+    }
+
+    /**
+     * Gets every DStore with something to do
+     *
+     * @return DStore ports
+     */
+    public Set<Integer> getPorts() {
+        Set<Integer> ports = new TreeSet<>(sends.keySet());
+        ports.addAll(removes.keySet());
+        return ports;
+    }
+
+    /**
+     * Creates the REBALANCE message for a DStore
+     *
+     * @param port DStore port
+     * @return message
+     */
+    public String getMessage(int port) {
+        return createMessage(getSends(port), getRemoves(port));
+    }
+
+    /**
+     * Creates a REBALANCE message
+     *
+     * @param files filename -> ports to send the file to
+     * @param filenames files to remove
+     * @return message
+     */
+    public static String createMessage(Map<String, List<Integer>> files, List<String> filenames) {
+        StringBuilder message = new StringBuilder(Protocol.REBALANCE_TOKEN).append(' ').append(files.size());
+        files.forEach((filename, destinations) -> {
+            message.append(' ').append(filename).append(' ').append(destinations.size());
+            destinations.forEach(destination -> message.append(' ').append(destination));
+        });
+
+        message.append(' ').append(filenames.size());
+        filenames.forEach(filename -> message.append(' ').append(filename));
+        return message.toString();
+    }
+
+    /**
+     * Gets the files a DStore has to send
+     *
+     * @param port DStore port
+     * @return filename -> ports to send the file to
+     */
+    public Map<String, List<Integer>> getSends(int port) {
+        return sends.getOrDefault(port, Map.of());
+    }
+
+    /**
+     * Gets the files a DStore has to remove
+     *
+     * @param port DStore port
+     * @return filenames
+     */
+    public List<String> getRemoves(int port) {
+        return new ArrayList<>(removes.getOrDefault(port, Set.of()));
+    }
+
+    /**
+     * Gets the DStores storing every available file once the plan is done
+     *
+     * @return filename -> ports
+     */
+    public Map<String, Set<Integer>> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Gets the amount of available files which no DStore stores any more
+     *
+     * @return amount of files
+     */
+    public int getLostFiles() {
+        return lostFiles;
+    }
+}
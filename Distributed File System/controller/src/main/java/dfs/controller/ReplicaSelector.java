@@ -0,0 +1,183 @@
+package dfs.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses which DStore a client loads a file from. Every DStore is scored by the loads it is
+ * serving and by the loads which recently failed on it, so loads are spread over all replicas and
+ * busy or failing DStores are avoided. How long loads take is not used, as the Controller only
+ * sees when the client sends its next message, which includes the client's own time
+ */
+public class ReplicaSelector {
+
+    /** Loads a failed load counts as, halved by every load which finishes on the DStore */
+    private static final double FAILURE_PENALTY = 4;
+
+    /** port -> load statistics */
+    private final ConcurrentHashMap<Integer, DStoreStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Chooses the best DStore to load a file from and counts the load as started
+     *
+     * @param replicas DStores storing the file
+     * @param excluded DStores which must not be chosen, such as ones already tried
+     * @return port, -1 if every DStore is excluded
+     */
+    public int choose(List<Integer> replicas, Set<Integer> excluded) {
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        int ties = 0;
+        for (int port : replicas) {
+            if (excluded.contains(port)) {
+                continue;
+            }
+
+            double score = getStats(port).getScore();
+            if (score < bestScore) {
+                best = port;
+                bestScore = score;
+                ties = 1;
+            } else if (score == bestScore && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                // Pick evenly between equally good DStores, so they share the loads
+                best = port;
+            }
+        }
+
+        if (best >= 0) {
+            getStats(best).start();
+        }
+        return best;
+    }
+
+    /**
+     * Orders DStores from best to worst to load from, without counting any load as started
+     *
+     * @param replicas DStores storing a file
+     * @return ports, best first
+     */
+    public List<Integer> rank(List<Integer> replicas) {
+        // Take every score once, as they change while sorting
+        HashMap<Integer, Double> scores = new HashMap<>();
+        replicas.forEach(port -> scores.put(port, getStats(port).getScore()));
+
+        ArrayList<Integer> ranked = new ArrayList<>(replicas);
+        Collections.shuffle(ranked, ThreadLocalRandom.current());
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        return ranked;
+    }
+
+    /**
+     * Records a load which has finished
+     *
+     * @param port DStore port
+     */
+    public void finished(int port) {
+        getStats(port).finish(true);
+    }
+
+    /**
+     * Records a load which failed, making the DStore less likely to be chosen
+     *
+     * @param port DStore port
+     */
+    public void failed(int port) {
+        getStats(port).fail();
+    }
+
+    /**
+     * Records a load whose outcome is unknown, such as when the client disconnected
+     *
+     * @param port DStore port
+     */
+    public void abandoned(int port) {
+        getStats(port).finish(false);
+    }
+
+    /**
+     * Gets the amount of loads a DStore is serving
+     *
+     * @param port DStore port
+     * @return loads sent to the DStore which have not finished
+     */
+    public int getInFlight(int port) {
+        DStoreStats dstoreStats = stats.get(port);
+        return dstoreStats == null ? 0 : dstoreStats.getInFlight();
+    }
+
+    /**
+     * Forgets a DStore which has been removed
+     *
+     * @param port DStore port
+     */
+    public void remove(int port) {
+        stats.remove(port);
+    }
+
+    /**
+     * Gets the statistics of a DStore
+     *
+     * @param port DStore port
+     * @return statistics
+     */
+    private DStoreStats getStats(int port) {
+        return stats.computeIfAbsent(port, p -> new DStoreStats());
+    }
+
+    /** Load statistics of a DStore */
+    private static class DStoreStats {
+
+        /** Amount of loads being served */
+        private int inFlight = 0;
+
+        /** Loads recent failures count as */
+        private double penalty = 0;
+
+        /**
+         * Gets how busy the DStore is, relative to other DStores
+         *
+         * @return score, lower is better
+         */
+        synchronized double getScore() {
+            return inFlight + penalty;
+        }
+
+        /**
+         * Gets the amount of loads being served
+         *
+         * @return loads
+         */
+        synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        /** Counts a load as started */
+        synchronized void start() {
+            inFlight++;
+        }
+
+        /**
+         * Counts a load as finished
+         *
+         * @param succeeded whether the load is known to have succeeded
+         */
+        synchronized void finish(boolean succeeded) {
+            inFlight = Math.max(0, inFlight - 1);
+            if (succeeded) {
+                penalty /= 2;
+            }
+        }
+
+        /** Counts a load as failed */
+        synchronized void fail() {
+            inFlight = Math.max(0, inFlight - 1);
+            penalty += FAILURE_PENALTY;
+        }
+    }
+}
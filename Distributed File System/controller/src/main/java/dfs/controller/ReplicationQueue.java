@@ -0,0 +1,73 @@
+package dfs.controller;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Files which have fewer live replicas than they should, ordered so the files with the fewest live
+ * replicas, which are the closest to being lost, are copied first
+ */
+public class ReplicationQueue {
+
+    /** Queued files, most at risk first. May hold outdated entries, which are skipped */
+    private final PriorityQueue<QueuedFile> queue = new PriorityQueue<>();
+
+    /** Live replicas of every queued file, as of its latest entry */
+    private final HashMap<String, Integer> queued = new HashMap<>();
+
+    /**
+     * Queues a file, or moves it forward if it has lost more replicas since it was queued
+     *
+     * @param filename name of file
+     * @param liveReplicas amount of live DStores storing the file
+     */
+    public synchronized void add(String filename, int liveReplicas) {
+        Integer queuedReplicas = queued.get(filename);
+        if (queuedReplicas != null && queuedReplicas <= liveReplicas) {
+            return;
+        }
+        queued.put(filename, liveReplicas);
+        queue.add(new QueuedFile(filename, liveReplicas));
+    }
+
+    /**
+     * Takes the files most at risk off the queue
+     *
+     * @param max maximum amount of files to take
+     * @return files, most at risk first
+     */
+    public synchronized List<String> poll(int max) {
+        ArrayList<String> files = new ArrayList<>();
+        while (files.size() < max && !queue.isEmpty()) {
+            QueuedFile file = queue.poll();
+            Integer liveReplicas = queued.get(file.filename);
+            if (liveReplicas != null && liveReplicas == file.liveReplicas) {
+                queued.remove(file.filename);
+                files.add(file.filename);
+            }
+        }
+        return files;
+    }
+
+    /** An entry of the queue */
+    private static class QueuedFile implements Comparable<QueuedFile> {
+
+        /** Name of file */
+        private final String filename;
+
+        /** Amount of live DStores storing the file when it was queued */
+        private final int liveReplicas;
+
+        QueuedFile(String filename, int liveReplicas) {
+            this.filename = filename;
+            this.liveReplicas = liveReplicas;
+        }
+
+        @Override
+        public int compareTo(QueuedFile other) {
+            return Integer.compare(liveReplicas, other.liveReplicas);
+        }
+    }
+}
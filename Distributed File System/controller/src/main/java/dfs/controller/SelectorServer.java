@@ -0,0 +1,647 @@
+package dfs.controller;
+
+import dfs.protocol.BinaryProtocol;
+import dfs.protocol.Log;
+import dfs.protocol.Request;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking acceptor and reader loop. Every connection is read by a single selector thread,
+ * which frames the newline terminated messages from {@link Protocol} and dispatches them to a
+ * bounded worker pool, so the amount of connections is not tied to the amount of threads. A
+ * connection whose first byte is {@link BinaryProtocol#MAGIC} is framed with the binary protocol
+ * instead
+ */
+public class SelectorServer implements Runnable {
+
+    /** Maximum length in bytes of a single message */
+    private static final int MAX_LINE_LENGTH = 16 * 1024 * 1024;
+
+    /** Amount of framed messages a connection can have waiting before reading from it is paused */
+    private static final int MAX_PENDING_LINES = 64;
+
+    /** Charset used to decode and encode messages, matching the readers and writers of the DStores */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Receives the messages and lifecycle events of every connection */
+    private final ConnectionHandler handler;
+
+    /** Pool running the handler, messages of one connection are always handled in order */
+    private final ExecutorService workers;
+
+    /** Selector for accepting, reading and writing */
+    private final Selector selector;
+
+    /** Listening socket */
+    private final ServerSocketChannel serverChannel;
+
+    /** Tasks which have to be run by the selector thread */
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    /** Connections with messages which could not be dispatched as the worker pool was full */
+    private final ArrayDeque<Connection> backlog = new ArrayDeque<>();
+
+    /** Buffer shared by all reads on the selector thread */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+
+    /**
+     * Creates a server listening on a port with a bounded pool of worker threads
+     *
+     * @param port port to listen on
+     * @param workerThreads amount of worker threads
+     * @param workerQueue amount of dispatched connections which can wait for a worker thread
+     * @param handler handler for all connections
+     * @throws IOException if the port could not be bound
+     */
+    public SelectorServer(int port, int workerThreads, int workerQueue, ConnectionHandler handler)
+            throws IOException {
+        this(port, createWorkerPool(workerThreads, workerQueue), handler);
+    }
+
+    /**
+     * Creates a server listening on a port which dispatches messages to a given executor
+     *
+     * @param port port to listen on
+     * @param workers executor running the handler
+     * @param handler handler for all connections
+     * @throws IOException if the port could not be bound
+     */
+    public SelectorServer(int port, ExecutorService workers, ConnectionHandler handler)
+            throws IOException {
+        this.handler = handler;
+        this.workers = workers;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Creates the bounded pool of worker threads
+     *
+     * @param workerThreads amount of threads
+     * @param workerQueue capacity of the queue in front of the threads
+     * @return worker pool
+     */
+    private static ExecutorService createWorkerPool(int workerThreads, int workerQueue) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(
+                workerThreads,
+                workerThreads,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerQueue),
+                runnable -> new Thread(runnable, "worker-" + threadCount.incrementAndGet()));
+    }
+
+    /**
+     * Gets the amount of dispatched connections waiting for a worker thread
+     *
+     * @return connections, 0 if the executor has no queue
+     */
+    public int getQueuedConnections() {
+        return workers instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) workers).getQueue().size() : 0;
+    }
+
+    /** Runs the selector loop until the listening socket is closed */
+    @Override
+    public void run() {
+        while (serverChannel.isOpen()) {
+            try {
+                // While saturated, poll so the backlog is retried instead of waiting for an event
+                if (backlog.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.select(10);
+                }
+                runSelectorTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.flush();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(connection);
+                    }
+                }
+
+                retryBacklog();
+            } catch (Exception e) {
+                Log.error("Error in selector loop: {}", e);
+            }
+        }
+    }
+
+    /** Runs all tasks queued for the selector thread */
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Queues a task to be run by the selector thread and wakes it up
+     *
+     * @param task task to run
+     */
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    /** Accepts all pending connections */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    /**
+     * Reads all available bytes from a connection, framing every complete message
+     *
+     * @param connection connection to read from
+     */
+    private void read(Connection connection) {
+        readBuffer.clear();
+        int read;
+        try {
+            read = connection.channel.read(readBuffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+
+        if (read < 0) {
+            // Stop reading, the connection is closed once all messages have been handled
+            connection.key.interestOps(0);
+            synchronized (connection) {
+                connection.endOfStream = true;
+            }
+            dispatch(connection);
+            return;
+        }
+
+        byte[] bytes = readBuffer.array();
+        int start = 0;
+        if (!connection.started && read > 0) {
+            connection.started = true;
+            if (bytes[0] == BinaryProtocol.MAGIC) {
+                connection.partialFrames = ByteBuffer.allocate(readBuffer.capacity());
+                start = 1;
+            }
+        }
+        if (connection.partialFrames != null) {
+            if (readFrames(connection, start, read)) {
+                dispatch(connection);
+            }
+            return;
+        }
+
+        for (int i = start; i < read; i++) {
+            if (bytes[i] == '\n') {
+                connection.partialLine.write(bytes, start, i - start);
+                connection.frameLine();
+                start = i + 1;
+            }
+        }
+        connection.partialLine.write(bytes, start, read - start);
+
+        if (connection.partialLine.size() > MAX_LINE_LENGTH) {
+            Log.error("Message exceeds maximum length, closing connection");
+            connection.close();
+            return;
+        }
+        dispatch(connection);
+    }
+
+    /**
+     * Frames every complete binary frame read so far, decoding it straight from the buffer
+     *
+     * @param connection binary connection read from
+     * @param start position of the first new byte in the read buffer
+     * @param end position after the last new byte in the read buffer
+     * @return false if the connection has been closed for sending a malformed frame
+     */
+    private boolean readFrames(Connection connection, int start, int end) {
+        ByteBuffer frames = connection.partialFrames;
+        if (frames.remaining() < end - start) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(frames.capacity() * 2, frames.position() + end - start));
+            frames.flip();
+            frames = connection.partialFrames = larger.put(frames);
+        }
+        frames.put(readBuffer.array(), start, end - start);
+        frames.flip();
+
+        try {
+            while (frames.remaining() >= BinaryProtocol.LENGTH_SIZE) {
+                int length = frames.getInt(frames.position());
+                if (length < 0 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    throw new ProtocolException("Malformed frame length " + length);
+                }
+                if (frames.remaining() < BinaryProtocol.LENGTH_SIZE + length) {
+                    break;
+                }
+                frames.position(frames.position() + BinaryProtocol.LENGTH_SIZE);
+                connection.queue(BinaryProtocol.decode(frames, length));
+            }
+        } catch (ProtocolException e) {
+            Log.error("{}, closing connection", e.getMessage());
+            connection.close();
+            return false;
+        }
+
+        frames.compact();
+        return true;
+    }
+
+    /**
+     * Hands a connection with waiting messages to the worker pool, unless it is already being
+     * handled
+     *
+     * @param connection connection to dispatch
+     */
+    private void dispatch(Connection connection) {
+        synchronized (connection) {
+            if (connection.scheduled
+                    || connection.queued
+                    || (connection.pending.isEmpty() && !connection.endOfStream)) {
+                return;
+            }
+            connection.scheduled = true;
+        }
+
+        try {
+            workers.execute(() -> drain(connection));
+        } catch (RejectedExecutionException e) {
+            synchronized (connection) {
+                connection.scheduled = false;
+                connection.queued = true;
+            }
+            backlog.add(connection);
+        }
+    }
+
+    /** Dispatches connections which were rejected by the full worker pool */
+    private void retryBacklog() {
+        int waiting = backlog.size();
+        for (int i = 0; i < waiting; i++) {
+            Connection connection = backlog.poll();
+            synchronized (connection) {
+                connection.queued = false;
+            }
+            dispatch(connection);
+        }
+    }
+
+    /**
+     * Handles every waiting message of a connection in order, on a worker thread
+     *
+     * @param connection connection to handle
+     */
+    private void drain(Connection connection) {
+        while (true) {
+            Request request;
+            boolean resumeReading = false;
+            synchronized (connection) {
+                request = connection.pending.poll();
+                if (request == null) {
+                    connection.scheduled = false;
+                    if (!connection.endOfStream || connection.detached) {
+                        return;
+                    }
+                } else if (connection.readPaused && connection.pending.size() < MAX_PENDING_LINES / 2) {
+                    connection.readPaused = false;
+                    resumeReading = true;
+                }
+            }
+
+            if (request == null) {
+                connection.close();
+                return;
+            }
+
+            if (resumeReading) {
+                runOnSelector(() -> {
+                    if (connection.key.isValid()) {
+                        connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+                    }
+                });
+            }
+
+            try {
+                handler.requestReceived(connection, request);
+            } catch (Exception e) {
+                Log.error("Error in handling message: {}", e);
+            }
+        }
+    }
+
+    /** Receives the messages and lifecycle events of connections accepted by a SelectorServer */
+    public interface ConnectionHandler {
+
+        /**
+         * Handles a message, called on a worker thread and never concurrently for one connection
+         *
+         * @param connection connection the message was received on
+         * @param request message, split into its fields
+         */
+        void requestReceived(Connection connection, Request request);
+
+        /**
+         * Called once when a connection has been closed
+         *
+         * @param connection closed connection
+         */
+        void connectionClosed(Connection connection);
+    }
+
+    /** A single accepted connection */
+    public class Connection {
+
+        /** Underlying channel */
+        private final SocketChannel channel;
+
+        /** Registration with the selector */
+        private SelectionKey key;
+
+        /** Bytes of the message currently being read */
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+        /** Bytes of binary frames not yet complete, null for text connections */
+        private ByteBuffer partialFrames;
+
+        /** Whether the first byte has been read, which chooses the framing */
+        private boolean started = false;
+
+        /** Framed messages waiting to be handled */
+        private final ArrayDeque<Request> pending = new ArrayDeque<>();
+
+        /** Encoded messages waiting to be written */
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+
+        /** Whether a worker is handling the connection */
+        private boolean scheduled = false;
+
+        /** Whether the connection is waiting in the backlog */
+        private boolean queued = false;
+
+        /** Whether reading has been paused as too many messages are waiting */
+        private boolean readPaused = false;
+
+        /** Whether the selector is waiting for the channel to become writable */
+        private boolean writeInterest = false;
+
+        /** Whether the peer has closed its side of the connection */
+        private boolean endOfStream = false;
+
+        /** Whether the connection has been handed over to blocking IO */
+        private boolean detached = false;
+
+        /** Whether the connection has been closed */
+        private boolean closed = false;
+
+        /** Object associated with the connection by the handler */
+        private volatile Object attachment;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /** Moves the bytes read so far into a waiting message, called by the selector thread */
+        private void frameLine() {
+            byte[] bytes = partialLine.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            partialLine.reset();
+
+            queue(Request.parse(new String(bytes, 0, length, CHARSET)));
+        }
+
+        /**
+         * Adds a framed message to the ones waiting, pausing reading if there are too many
+         *
+         * @param request message
+         */
+        private void queue(Request request) {
+            synchronized (this) {
+                pending.add(request);
+                if (pending.size() >= MAX_PENDING_LINES && !readPaused) {
+                    readPaused = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        /**
+         * Sends a message to the peer without blocking, queueing whatever cannot be written
+         * straight away
+         *
+         * @param message message to send
+         */
+        public void send(String message) {
+            send(ByteBuffer.wrap((message + "\n").getBytes(CHARSET)));
+        }
+
+        /**
+         * Sends the reply to a request, in the framing the peer chose
+         *
+         * @param request request being replied to
+         * @param message reply in the text protocol
+         */
+        public void reply(Request request, String message) {
+            if (partialFrames != null) {
+                send(BinaryProtocol.encode(request.getId(), message));
+            } else {
+                send(request.tagReply(message));
+            }
+        }
+
+        /**
+         * Sends encoded bytes without blocking, queueing whatever cannot be written straight away
+         *
+         * @param buffer bytes to send
+         */
+        private void send(ByteBuffer buffer) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (outbound.isEmpty()) {
+                    try {
+                        channel.write(buffer);
+                    } catch (IOException e) {
+                        Log.error("Error in writing to connection: {}", e);
+                        return;
+                    }
+                    if (!buffer.hasRemaining()) {
+                        return;
+                    }
+                }
+                outbound.add(buffer);
+                if (!writeInterest) {
+                    writeInterest = true;
+                    runOnSelector(() -> {
+                        if (key.isValid()) {
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        }
+                    });
+                }
+            }
+        }
+
+        /** Writes queued messages once the channel is writable, called by the selector thread */
+        private synchronized void flush() {
+            try {
+                while (!outbound.isEmpty()) {
+                    ByteBuffer buffer = outbound.peek();
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    outbound.poll();
+                }
+                writeInterest = false;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                Log.error("Error in writing to connection: {}", e);
+                outbound.clear();
+            }
+        }
+
+        /**
+         * Removes the connection from the selector and switches it to blocking IO, so it can be
+         * served by a dedicated thread. Must be called by the handler from a worker thread
+         *
+         * @return input stream continuing after the last handled message
+         * @throws IOException if the channel could not be switched to blocking IO
+         */
+        public InputStream detach() throws IOException {
+            CompletableFuture<byte[]> unhandled = new CompletableFuture<>();
+            runOnSelector(() -> {
+                try {
+                    if (partialFrames != null) {
+                        throw new IOException("Binary connections cannot be detached");
+                    }
+                    key.cancel();
+                    selector.selectNow();
+                    channel.configureBlocking(true);
+
+                    // Return messages which have been read, but not yet handled
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    synchronized (this) {
+                        detached = true;
+                        for (Request request : pending) {
+                            bytes.write((request.getLine() + "\n").getBytes(CHARSET));
+                        }
+                        pending.clear();
+                    }
+                    partialLine.writeTo(bytes);
+                    unhandled.complete(bytes.toByteArray());
+                } catch (Exception e) {
+                    unhandled.completeExceptionally(e);
+                }
+            });
+
+            try {
+                byte[] bytes = unhandled.get();
+                return new SequenceInputStream(
+                        new ByteArrayInputStream(bytes), channel.socket().getInputStream());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while detaching connection");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Gets the socket of the connection
+         *
+         * @return socket
+         */
+        public Socket getSocket() {
+            return channel.socket();
+        }
+
+        /**
+         * Gets the object associated with the connection
+         *
+         * @return attachment, or null if nothing has been attached
+         */
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        /**
+         * Associates an object with the connection
+         *
+         * @param attachment object to attach
+         */
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+
+        /** Closes the connection and notifies the handler */
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                outbound.clear();
+            }
+            try {
+                channel.close();
+            } catch (ClosedChannelException e) {
+                // Already closed
+            } catch (IOException e) {
+                Log.error("Error in closing connection: {}", e);
+            }
+            handler.connectionClosed(this);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package dfs.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AckCollectorTest {
+
+    @Test
+    void completesOnceEveryDStoreAcks() {
+        AckCollector acks = new AckCollector(2, 10000);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        acks.expect(1, first);
+        acks.expect(2, second);
+        first.complete("");
+        second.complete("");
+
+        long start = System.nanoTime();
+        assertTrue(acks.await());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(Set.of(1, 2), acks.getAckedPorts());
+        assertEquals(Set.of(1, 2), acks.getExpectedPorts());
+    }
+
+    @Test
+    void deadlineIsSharedByAllDStores() {
+        AckCollector acks = new AckCollector(3, 500);
+        long start = System.nanoTime();
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        CompletableFuture<String> missing = new CompletableFuture<>();
+        acks.expect(1, CompletableFuture.completedFuture(""));
+        acks.expect(2, slow);
+        acks.expect(3, missing);
+        CompletableFuture.delayedExecutor(300, TimeUnit.MILLISECONDS).execute(() -> slow.complete(""));
+
+        // The missing ACK is waited for until 500ms after the start, not 500ms after the slow ACK
+        assertFalse(acks.await());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 450 && elapsed < 750, "waited " + elapsed + "ms");
+        assertEquals(Set.of(1, 2), acks.getAckedPorts());
+    }
+
+    @Test
+    void deadlineRunsFromCreation() throws InterruptedException {
+        AckCollector acks = new AckCollector(1, 200);
+        acks.expect(1, new CompletableFuture<>());
+        Thread.sleep(300);
+
+        long start = System.nanoTime();
+        assertFalse(acks.await());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, acks.getRemainingTime());
+    }
+
+    @Test
+    void missingAcksAreCancelled() {
+        AckCollector acks = new AckCollector(1, 100);
+        CompletableFuture<String> missing = new CompletableFuture<>();
+        acks.expect(1, missing);
+
+        assertFalse(acks.await());
+        assertTrue(missing.isCancelled());
+        missing.complete("");
+        assertEquals(Set.of(), acks.getAckedPorts());
+    }
+
+    @Test
+    void duplicateAcksCountOnce() {
+        AckCollector acks = new AckCollector(2, 100);
+        acks.ack(1);
+        acks.ack(1);
+
+        assertFalse(acks.await());
+        assertEquals(Set.of(1), acks.getAckedPorts());
+    }
+}
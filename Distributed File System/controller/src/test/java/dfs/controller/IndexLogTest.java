@@ -0,0 +1,128 @@
+package dfs.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dfs.protocol.RecordCodec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IndexLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversRecordsInOrder() throws IOException {
+        IndexLog log = open(List.of());
+        appendDurably(log, "a", "b", "c");
+
+        assertEquals(List.of("a", "b", "c"), recover());
+    }
+
+    @Test
+    void dropsEverythingAfterDamagedRecord() throws IOException {
+        IndexLog log = open(List.of());
+        appendDurably(log, "a", "b");
+
+        Files.writeString(directory.resolve("index.log.1"), "0 torn\n" + RecordCodec.encode("c"),
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(List.of("a", "b"), recover());
+    }
+
+    @Test
+    void snapshotReplacesEarlierGenerations() throws IOException {
+        IndexLog log = open(List.of("s"));
+        appendDurably(log, "a");
+        assertEquals(1, log.getRecordsSinceSnapshot());
+
+        long generation = log.startGeneration();
+        assertEquals(2, generation);
+        assertEquals(0, log.getRecordsSinceSnapshot());
+        log.writeSnapshot(List.of("s", "a"), generation);
+        appendDurably(log, "b");
+
+        assertFalse(Files.exists(directory.resolve("index.log.1")));
+        assertTrue(Files.exists(directory.resolve("index.log.2")));
+        assertEquals(List.of("s", "a", "b"), recover());
+    }
+
+    @Test
+    void recordsBufferedAtGenerationStartAreDurable() throws IOException {
+        IndexLog log = open(List.of());
+        long sequence = log.append("a");
+        log.startGeneration();
+        log.awaitDurable(sequence);
+
+        assertEquals(List.of("a"), recover());
+    }
+
+    @Test
+    void reopenedLogContinuesAfterRecovery() throws IOException {
+        appendDurably(open(List.of()), "a", "b");
+
+        List<String> state = recover();
+        IndexLog reopened = new IndexLog(directory);
+        reopened.recover(record -> { });
+        reopened.open(state);
+        appendDurably(reopened, "c");
+
+        assertEquals(List.of("a", "b", "c"), recover());
+    }
+
+    @Test
+    void damagedSnapshotIsIgnored() throws IOException {
+        IndexLog log = open(List.of("s"));
+        appendDurably(log, "a");
+
+        Files.writeString(directory.resolve("index.snapshot"), "damaged\n", StandardCharsets.UTF_8);
+        assertEquals(List.of("a"), recover());
+    }
+
+    /**
+     * Opens a new log in the folder, as a Controller does after recovering
+     *
+     * @param state records of the recovered state
+     * @return log
+     */
+    private IndexLog open(List<String> state) throws IOException {
+        IndexLog log = new IndexLog(directory);
+        log.recover(record -> { });
+        log.open(state);
+        return log;
+    }
+
+    /**
+     * Appends records and waits until they are on disk
+     *
+     * @param log log
+     * @param records records
+     */
+    private static void appendDurably(IndexLog log, String... records) {
+        long sequence = 0;
+        for (String record : records) {
+            sequence = log.append(record);
+        }
+        log.awaitDurable(sequence);
+    }
+
+    /**
+     * Recovers the records of the folder with a new log
+     *
+     * @return records replayed
+     */
+    private List<String> recover() throws IOException {
+        List<String> records = new ArrayList<>();
+        long replayed = new IndexLog(directory).recover(records::add);
+        assertEquals(records.size(), replayed);
+        return records;
+    }
+}
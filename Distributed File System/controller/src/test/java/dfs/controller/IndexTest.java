@@ -0,0 +1,169 @@
+package dfs.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IndexTest {
+
+    @Test
+    void recoversCompletedChangesOnly(@TempDir Path directory) throws IOException {
+        Index index = new Index();
+        index.openLog(directory);
+        index.addFiles(1, Map.of());
+        index.addFiles(2, Map.of());
+        store(index, "kept", 5_000_000_000L);
+        store(index, "removed", 10);
+        index.beginRemove("removed");
+        index.completeRemove("removed");
+        index.beginStore("storing");
+        index.placeFile("storing", 20, 2);
+        store(index, "removing", 30);
+        index.beginRemove("removing");
+
+        Index recovered = new Index();
+        recovered.openLog(directory);
+        assertEquals(Map.of("kept", Index.FileState.AVAILABLE), recovered.getFileStates());
+        assertEquals(5_000_000_000L, recovered.getFileSize("kept"));
+        assertEquals(-1, recovered.getFileSize("storing"));
+    }
+
+    @Test
+    void adoptsListedFilesWithoutLog(@TempDir Path directory) throws IOException {
+        Index index = new Index();
+        index.openLog(directory);
+        index.beginStore("storing");
+        index.addFiles(1, Map.of("a", 7L, "storing", 3L));
+        index.addFiles(2, Map.of("a", 7L));
+
+        assertEquals(Map.of("a", Index.FileState.AVAILABLE, "storing", Index.FileState.STORE_IN_PROGRESS),
+                index.getFileStates());
+        assertEquals(7, index.getFileSize("a"));
+        assertEquals(Set.of(1, 2), new HashSet<>(index.getPortsWithFile("a")));
+
+        Index recovered = new Index();
+        recovered.openLog(directory);
+        assertEquals(Map.of("a", Index.FileState.AVAILABLE), recovered.getFileStates());
+        assertEquals(7, recovered.getFileSize("a"));
+    }
+
+    @Test
+    void restoredIndexAdoptsNothing(@TempDir Path directory) throws IOException {
+        Index index = new Index();
+        index.openLog(directory);
+        index.addFiles(1, Map.of());
+        store(index, "kept", 5);
+
+        Index recovered = new Index();
+        recovered.openLog(directory);
+        recovered.addFiles(1, Map.of("kept", 5L, "unknown", 9L));
+        assertEquals(Map.of("kept", Index.FileState.AVAILABLE), recovered.getFileStates());
+        assertFalse(recovered.isAvailable("unknown"));
+    }
+
+    @Test
+    void setsReplicasOnlyWhileAvailable() {
+        Index index = new Index();
+        index.addFiles(1, Map.of());
+        index.addFiles(2, Map.of());
+        index.addFiles(3, Map.of());
+        store(index, "moved", 5);
+        store(index, "removing", 5);
+        index.beginRemove("removing");
+        Set<Integer> ports = new HashSet<>(index.getPortsWithFile("removing"));
+
+        assertTrue(index.setReplicas("moved", Set.of(3)));
+        assertEquals(List.of(3), index.getPortsWithFile("moved"));
+        assertFalse(index.setReplicas("removing", Set.of(3)));
+        assertEquals(ports, new HashSet<>(index.getPortsWithFile("removing")));
+        assertFalse(index.setReplicas("unknown", Set.of(3)));
+        assertEquals(List.of(), index.getPortsWithFile("unknown"));
+    }
+
+    @Test
+    void storesAndRemovesOfSameFilesNeverOverlap() throws Exception {
+        Index index = new Index();
+        for (int port = 1; port <= 3; port++) {
+            index.addFiles(port, Map.of());
+        }
+        List<String> filenames = List.of("a", "b", "c", "d");
+        // filename -> threads between beginning and completing a store or remove of the file
+        Map<String, AtomicInteger> owners = new ConcurrentHashMap<>();
+        filenames.forEach(filename -> owners.put(filename, new AtomicInteger()));
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            workers.add(threads.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 2000; i++) {
+                    String filename = filenames.get(random.nextInt(filenames.size()));
+                    AtomicInteger owner = owners.get(filename);
+                    int operation = random.nextInt(3);
+                    if (operation < 2 && index.beginStore(filename)) {
+                        assertEquals(1, owner.incrementAndGet(), "stores of " + filename + " overlap");
+                        assertEquals(2, index.placeFile(filename, 10, 2).size());
+                        assertFalse(index.isAvailable(filename));
+                        owner.decrementAndGet();
+                        if (operation == 0) {
+                            index.completeStore(filename);
+                        } else {
+                            // A store which failed
+                            index.removeFiles(filename);
+                        }
+                    } else if (operation == 2 && index.beginRemove(filename)) {
+                        assertEquals(1, owner.incrementAndGet(), "removes of " + filename + " overlap");
+                        assertFalse(index.beginStore(filename));
+                        owner.decrementAndGet();
+                        assertTrue(index.completeRemove(filename));
+                    }
+                }
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        threads.shutdown();
+
+        Map<String, Index.FileState> states = index.getFileStates();
+        for (String filename : filenames) {
+            if (states.containsKey(filename)) {
+                assertEquals(Index.FileState.AVAILABLE, states.get(filename));
+                assertEquals(2, new HashSet<>(index.getPortsWithFile(filename)).size());
+                assertEquals(10, index.getFileSize(filename));
+            } else {
+                assertEquals(List.of(), index.getPortsWithFile(filename));
+                assertEquals(-1, index.getFileSize(filename));
+            }
+        }
+    }
+
+    /**
+     * Stores a file on two DStores
+     *
+     * @param index index
+     * @param filename name of file
+     * @param size size of file
+     */
+    private static void store(Index index, String filename, long size) {
+        index.beginStore(filename);
+        index.placeFile(filename, size, 2);
+        index.completeStore(filename);
+    }
+}
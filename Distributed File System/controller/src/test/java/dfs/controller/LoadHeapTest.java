@@ -0,0 +1,83 @@
+package dfs.controller;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LoadHeapTest {
+
+    @Test
+    void emptyHeapHasNoLeastLoaded() {
+        LoadHeap heap = new LoadHeap();
+        assertEquals(-1, heap.peek());
+        assertEquals(0, heap.leastLoaded(3, new int[3]));
+    }
+
+    @Test
+    void findsLeastLoadedInOrder() {
+        LoadHeap heap = new LoadHeap();
+        for (int port = 1; port <= 5; port++) {
+            heap.add(port);
+            heap.adjust(port, 10 - port);
+        }
+        heap.add(3);
+
+        int[] selected = new int[8];
+        assertEquals(3, heap.leastLoaded(3, selected));
+        assertArrayEquals(new int[] {5, 4, 3}, Arrays.copyOf(selected, 3));
+        assertEquals(5, heap.leastLoaded(8, selected));
+        assertArrayEquals(new int[] {5, 4, 3, 2, 1}, Arrays.copyOf(selected, 5));
+        assertEquals(7, heap.getLoad(3));
+
+        heap.remove(5);
+        assertFalse(heap.contains(5));
+        heap.adjust(5, -100);
+        assertEquals(4, heap.peek());
+        assertEquals(4, heap.size());
+    }
+
+    @Test
+    void matchesSortingUnderRandomChanges() {
+        Random random = new Random(42);
+        LoadHeap heap = new LoadHeap();
+        Map<Integer, Long> loads = new HashMap<>();
+        int[] selected = new int[64];
+
+        for (int step = 0; step < 20000; step++) {
+            int port = 1000 + random.nextInt(64);
+            switch (random.nextInt(4)) {
+                case 0:
+                    heap.add(port);
+                    loads.putIfAbsent(port, 0L);
+                    break;
+                case 1:
+                    heap.remove(port);
+                    loads.remove(port);
+                    break;
+                default:
+                    long delta = random.nextInt(21) - 10;
+                    heap.adjust(port, delta);
+                    loads.computeIfPresent(port, (p, load) -> load + delta);
+                    break;
+            }
+
+            int R = random.nextInt(8) + 1;
+            int found = heap.leastLoaded(R, selected);
+            long[] expected = loads.values().stream().sorted().limit(R).mapToLong(Long::longValue).toArray();
+            long[] actual = Arrays.stream(selected, 0, found).mapToLong(heap::getLoad).toArray();
+            assertArrayEquals(expected, actual, "step " + step);
+            assertEquals(loads.size(), heap.size());
+            if (!loads.isEmpty()) {
+                long least = loads.entrySet().stream().min(Comparator.comparing(Map.Entry::getValue)).get().getValue();
+                assertEquals(least, heap.getLoad(heap.peek()));
+            }
+        }
+    }
+}
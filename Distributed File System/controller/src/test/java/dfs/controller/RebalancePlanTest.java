@@ -0,0 +1,193 @@
+package dfs.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.jupiter.api.Test;
+
+class RebalancePlanTest {
+
+    @Test
+    void balancedClusterNeedsNothing() {
+        Map<Integer, Set<String>> listed = new TreeMap<>();
+        listed.put(1, Set.of("a", "b"));
+        listed.put(2, Set.of("b", "c"));
+        listed.put(3, Set.of("c", "a"));
+
+        RebalancePlan plan = new RebalancePlan(listed, Set.of("a", "b", "c"), Set.of(), 2);
+        assertTrue(plan.isEmpty());
+        assertEquals(0, plan.getLostFiles());
+    }
+
+    @Test
+    void fillsNewDStore() {
+        Map<Integer, Set<String>> listed = new TreeMap<>();
+        listed.put(1, Set.of("a", "b", "c", "d"));
+        listed.put(2, Set.of("a", "b", "c", "d"));
+        listed.put(3, Set.of());
+
+        RebalancePlan plan = new RebalancePlan(listed, Set.of("a", "b", "c", "d"), Set.of(), 2);
+        Map<Integer, Set<String>> stored = check(listed, Set.of("a", "b", "c", "d"), Set.of(), 2, plan);
+        assertTrue(stored.get(3).size() >= 2, "new DStore stores " + stored.get(3));
+    }
+
+    @Test
+    void removesRemovingFilesAndKeepsUnknownOnes() {
+        Map<Integer, Set<String>> listed = new TreeMap<>();
+        listed.put(1, Set.of("a", "removing", "unknown"));
+        listed.put(2, Set.of("a", "unknown"));
+
+        RebalancePlan plan = new RebalancePlan(listed, Set.of("a"), Set.of("removing"), 2);
+        assertEquals(List.of("removing"), plan.getRemoves(1));
+        assertEquals(List.of(), plan.getRemoves(2));
+    }
+
+    @Test
+    void keepsFilesOfEmptyIndex() {
+        // A Controller restarted without its log knows no file, which must not remove them all
+        Map<Integer, Set<String>> listed = new TreeMap<>();
+        listed.put(1, Set.of("a", "b"));
+        listed.put(2, Set.of("a", "b"));
+        listed.put(3, Set.of());
+
+        RebalancePlan plan = new RebalancePlan(listed, Set.of(), Set.of(), 2);
+        assertTrue(plan.isEmpty());
+        check(listed, Set.of(), Set.of(), 2, plan);
+    }
+
+    @Test
+    void countsLostFiles() {
+        Map<Integer, Set<String>> listed = new TreeMap<>();
+        listed.put(1, Set.of("a"));
+        listed.put(2, Set.of());
+
+        RebalancePlan plan = new RebalancePlan(listed, Set.of("a", "lost"), Set.of(), 2);
+        assertEquals(1, plan.getLostFiles());
+        check(listed, Set.of("a", "lost"), Set.of(), 2, plan);
+    }
+
+    @Test
+    void dstoreRemovingFileCanReceiveItBack() {
+        // Surplus replicas of a and c are removed first, after which balancing moves them back
+        Map<Integer, Set<String>> listed = new TreeMap<>();
+        listed.put(1, files("a", "c"));
+        listed.put(2, files("a", "b"));
+        listed.put(3, files("c"));
+
+        RebalancePlan plan = new RebalancePlan(listed, files("a", "b", "c"), Set.of(), 1);
+        check(listed, files("a", "b", "c"), Set.of(), 1, plan);
+    }
+
+    @Test
+    void randomClustersEndBalanced() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            int dstores = random.nextInt(8) + 1;
+            int R = random.nextInt(4) + 1;
+            Set<String> available = new TreeSet<>();
+            Set<String> removing = new TreeSet<>();
+            Map<Integer, Set<String>> listed = new TreeMap<>();
+            for (int port = 1; port <= dstores; port++) {
+                listed.put(port, new HashSet<>());
+            }
+
+            int files = random.nextInt(40);
+            for (int i = 0; i < files; i++) {
+                String filename = "f" + i;
+                int kind = random.nextInt(10);
+                if (kind == 0) {
+                    removing.add(filename);
+                } else if (kind > 1) {
+                    available.add(filename);
+                }
+                // Other files are being stored or unknown to the index
+                // Some files are listed by no DStore, some by every DStore
+                int copies = random.nextInt(dstores + 1);
+                for (int copy = 0; copy < copies; copy++) {
+                    listed.get(random.nextInt(dstores) + 1).add(filename);
+                }
+            }
+
+            RebalancePlan plan = new RebalancePlan(listed, available, removing, R);
+            check(listed, available, removing, R, plan);
+        }
+    }
+
+    /**
+     * Creates a set iterated in order, as the plan depends on the order files are seen in
+     *
+     * @param filenames names of files
+     * @return set
+     */
+    private static Set<String> files(String... filenames) {
+        return new TreeSet<>(List.of(filenames));
+    }
+
+    /**
+     * Carries out a plan on the listed files, as DStores do, sending before removing, and checks
+     * every file which is not lost ends on min(R, N) DStores, matching the replicas of the plan,
+     * only files being removed are removed, and every DStore stores between floor(R * F / N) and
+     * ceil(R * F / N) available files when no file is lost and every listed file is available
+     *
+     * @param listed port -> files listed by every DStore
+     * @param available files which should be on R DStores
+     * @param removing files being removed
+     * @param R Replication Factor
+     * @param plan plan to check
+     * @return port -> files stored once the plan is done
+     */
+    private static Map<Integer, Set<String>> check(Map<Integer, Set<String>> listed, Set<String> available,
+            Set<String> removing, int R, RebalancePlan plan) {
+        Map<Integer, Set<String>> stored = new TreeMap<>();
+        listed.forEach((port, files) -> stored.put(port, new HashSet<>(files)));
+        for (int port : listed.keySet()) {
+            plan.getSends(port).forEach((filename, destinations) -> {
+                assertTrue(listed.get(port).contains(filename), port + " sends " + filename + " it does not have");
+                destinations.forEach(destination -> stored.get(destination).add(filename));
+            });
+        }
+        for (int port : listed.keySet()) {
+            for (String filename : plan.getRemoves(port)) {
+                assertTrue(removing.contains(filename) || plan.getReplicas().containsKey(filename),
+                        port + " removes " + filename);
+                stored.get(port).remove(filename);
+            }
+        }
+
+        Map<String, Set<Integer>> replicas = new HashMap<>();
+        stored.forEach((port, files) -> files.forEach(
+                filename -> replicas.computeIfAbsent(filename, f -> new TreeSet<>()).add(port)));
+        int lost = 0;
+        for (String filename : available) {
+            Set<Integer> ports = replicas.getOrDefault(filename, Set.of());
+            if (ports.isEmpty()) {
+                lost++;
+                continue;
+            }
+            assertEquals(Math.min(R, listed.size()), ports.size(), filename + " on " + ports);
+            assertEquals(plan.getReplicas().get(filename), ports, filename);
+        }
+        assertEquals(lost, plan.getLostFiles());
+        boolean others = false;
+        for (String filename : replicas.keySet()) {
+            assertTrue(!removing.contains(filename), filename + " was not removed");
+            others |= !available.contains(filename);
+        }
+
+        if (lost == 0 && !others && R <= listed.size()) {
+            int lower = R * available.size() / listed.size();
+            int upper = (R * available.size() + listed.size() - 1) / listed.size();
+            stored.forEach((port, files) -> assertTrue(files.size() >= lower && files.size() <= upper,
+                    port + " stores " + files.size() + " files, outside " + lower + ".." + upper));
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,79 @@
+package dfs.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ReplicaSelectorTest {
+
+    private static final List<Integer> REPLICAS = List.of(1, 2, 3, 4);
+
+    @Test
+    void spreadsLoadsEvenly() {
+        ReplicaSelector selector = new ReplicaSelector();
+        for (int i = 0; i < 100; i++) {
+            selector.choose(REPLICAS, Set.of());
+        }
+        for (int port : REPLICAS) {
+            assertEquals(25, selector.getInFlight(port), "loads on " + port);
+        }
+    }
+
+    @Test
+    void choosesLeastBusy() {
+        ReplicaSelector selector = new ReplicaSelector();
+        int busy = selector.choose(List.of(1, 2), Set.of());
+        assertNotEquals(busy, selector.choose(List.of(1, 2), Set.of()));
+
+        selector.finished(busy);
+        assertEquals(busy, selector.choose(List.of(1, 2), Set.of()));
+    }
+
+    @Test
+    void skipsExcluded() {
+        ReplicaSelector selector = new ReplicaSelector();
+        assertEquals(3, selector.choose(REPLICAS, Set.of(1, 2, 4)));
+        assertEquals(-1, selector.choose(REPLICAS, Set.of(1, 2, 3, 4)));
+        assertEquals(1, selector.getInFlight(3));
+    }
+
+    @Test
+    void avoidsFailedDStore() {
+        ReplicaSelector selector = new ReplicaSelector();
+        int failed = selector.choose(List.of(1, 2), Set.of());
+        selector.failed(failed);
+        for (int i = 0; i < 10; i++) {
+            int port = selector.choose(List.of(1, 2), Set.of());
+            assertNotEquals(failed, port);
+            selector.finished(port);
+        }
+
+        // A failure counts as a few loads, so a DStore busy enough is worse than a failed one
+        for (int i = 0; i < 5; i++) {
+            selector.choose(List.of(3 - failed), Set.of());
+        }
+        assertEquals(failed, selector.choose(List.of(1, 2), Set.of()));
+    }
+
+    @Test
+    void ranksBusyLast() {
+        ReplicaSelector selector = new ReplicaSelector();
+        selector.choose(List.of(2), Set.of());
+        selector.choose(List.of(2), Set.of());
+        selector.choose(List.of(3), Set.of());
+
+        assertEquals(List.of(1, 3, 2), selector.rank(List.of(2, 3, 1)));
+        assertEquals(2, selector.getInFlight(2));
+    }
+
+    @Test
+    void abandonedLoadsFinish() {
+        ReplicaSelector selector = new ReplicaSelector();
+        int port = selector.choose(REPLICAS, Set.of());
+        selector.abandoned(port);
+        assertEquals(0, selector.getInFlight(port));
+    }
+}
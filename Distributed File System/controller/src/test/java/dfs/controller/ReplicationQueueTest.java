@@ -0,0 +1,53 @@
+package dfs.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ReplicationQueueTest {
+
+    @Test
+    void fewestLiveReplicasFirst() {
+        ReplicationQueue queue = new ReplicationQueue();
+        queue.add("two", 2);
+        queue.add("none", 0);
+        queue.add("one", 1);
+
+        assertEquals(List.of("none", "one"), queue.poll(2));
+        assertEquals(List.of("two"), queue.poll(10));
+        assertEquals(List.of(), queue.poll(10));
+    }
+
+    @Test
+    void fileLosingMoreReplicasMovesForward() {
+        ReplicationQueue queue = new ReplicationQueue();
+        queue.add("a", 2);
+        queue.add("b", 1);
+        queue.add("a", 0);
+
+        assertEquals(List.of("a", "b"), queue.poll(10));
+    }
+
+    @Test
+    void fileIsQueuedOnce() {
+        ReplicationQueue queue = new ReplicationQueue();
+        queue.add("a", 1);
+        queue.add("b", 2);
+        // Queued again with more replicas, such as by a later failure seeing a copy made since
+        queue.add("a", 3);
+        queue.add("a", 1);
+
+        assertEquals(List.of("a", "b"), queue.poll(10));
+    }
+
+    @Test
+    void polledFileCanBeQueuedAgain() {
+        ReplicationQueue queue = new ReplicationQueue();
+        queue.add("a", 1);
+        assertEquals(List.of("a"), queue.poll(1));
+
+        queue.add("a", 2);
+        assertEquals(List.of("a"), queue.poll(1));
+    }
+}
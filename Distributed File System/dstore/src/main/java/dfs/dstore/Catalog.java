@@ -0,0 +1,237 @@
+package dfs.dstore;
+
+import dfs.protocol.Log;
+import dfs.protocol.RecordCodec;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An append-only manifest of the files held by a DStore, kept next to its file folder. Every
+ * record is a checksummed line, so a record torn by a crash is detected and dropped when the
+ * manifest is replayed on restart
+ */
+public class Catalog implements Closeable {
+
+    /** Record of a stored file, followed by its size and name */
+    private static final String ADD_RECORD = "ADD";
+
+    /** Record of a removed file, followed by its name */
+    private static final String DELETE_RECORD = "DEL";
+
+    /** Minimum amount of records before the manifest is compacted */
+    private static final int COMPACTION_THRESHOLD = 1024;
+
+    /** Location of the manifest */
+    private final Path manifest;
+
+    /** Manifest opened for appending, after it has been loaded */
+    private FileChannel writer;
+
+    /**
+     * Creates a catalog for a file folder
+     *
+     * @param fileFolder folder the DStore stores its files in
+     */
+    public Catalog(String fileFolder) {
+        Path folder = Path.of(fileFolder).toAbsolutePath().normalize();
+        this.manifest = folder.resolveSibling(folder.getFileName() + ".manifest");
+    }
+
+    /**
+     * Checks if a manifest has been written before
+     *
+     * @return boolean
+     */
+    public boolean exists() {
+        return Files.exists(manifest);
+    }
+
+    /**
+     * Replays the manifest, dropping everything from the first damaged record onwards, and opens it
+     * for appending. Rewrites the manifest first if most of its records are no longer needed
+     *
+     * @return filename -> filesize of every stored file
+     * @throws IOException if the manifest cannot be read or written
+     */
+    public synchronized Map<String, Long> load() throws IOException {
+        HashMap<String, Long> files = new HashMap<>();
+        int records = 0;
+        long validLength = 0;
+
+        if (Files.exists(manifest)) {
+            // Malformed bytes are replaced rather than thrown, so they fail the checksum instead
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(Files.newInputStream(manifest), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!applyRecord(line, files)) {
+                        Log.warn("Damaged record in catalog, dropping the rest of it");
+                        break;
+                    }
+                    records++;
+                    validLength += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                }
+            }
+        }
+
+        if (records > COMPACTION_THRESHOLD && records > 2 * files.size()) {
+            compact(files);
+        } else {
+            writer = FileChannel.open(manifest, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if (validLength > writer.size()) {
+                // The last record is complete apart from its terminator
+                writer.position(writer.size());
+                append("\n");
+            } else {
+                writer.truncate(validLength);
+                writer.position(validLength);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Durably records a stored file
+     *
+     * @param filename name of file
+     * @param filesize size of file
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized void recordStore(String filename, long filesize) throws IOException {
+        append(RecordCodec.encode(ADD_RECORD + " " + filesize + " " + filename));
+    }
+
+    /**
+     * Durably records a removed file
+     *
+     * @param filename name of file
+     * @throws IOException if the record cannot be written
+     */
+    public synchronized void recordRemove(String filename) throws IOException {
+        append(RecordCodec.encode(DELETE_RECORD + " " + filename));
+    }
+
+    /**
+     * Durably records stored files with a single write to disk
+     *
+     * @param stored filename -> filesize
+     * @throws IOException if the records cannot be written
+     */
+    public synchronized void recordStores(Map<String, Long> stored) throws IOException {
+        StringBuilder records = new StringBuilder();
+        stored.forEach((filename, filesize) -> records.append(RecordCodec.encode(ADD_RECORD + " " + filesize + " " + filename)));
+        append(records.toString());
+    }
+
+    /**
+     * Durably records removed files with a single write to disk
+     *
+     * @param removed filenames
+     * @throws IOException if the records cannot be written
+     */
+    public synchronized void recordRemoves(Collection<String> removed) throws IOException {
+        StringBuilder records = new StringBuilder();
+        removed.forEach(filename -> records.append(RecordCodec.encode(DELETE_RECORD + " " + filename)));
+        append(records.toString());
+    }
+
+    /**
+     * Durably records every file in a set, replacing what was recorded before
+     *
+     * @param files filename -> filesize
+     * @throws IOException if the manifest cannot be written
+     */
+    public synchronized void recordAll(Map<String, Long> files) throws IOException {
+        compact(files);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes records to the end of the manifest and forces them to disk
+     *
+     * @param record encoded records
+     */
+    private void append(String record) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            writer.write(bytes);
+        }
+        writer.force(false);
+    }
+
+    /**
+     * Rewrites the manifest with one record per file, replacing it atomically
+     *
+     * @param files filename -> filesize
+     */
+    private void compact(Map<String, Long> files) throws IOException {
+        Path compacted = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder records = new StringBuilder();
+            for (Map.Entry<String, Long> file : files.entrySet()) {
+                records.append(RecordCodec.encode(ADD_RECORD + " " + file.getValue() + " " + file.getKey()));
+                if (records.length() >= 64 * 1024) {
+                    channel.write(ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8)));
+                    records.setLength(0);
+                }
+            }
+            channel.write(ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+
+        if (writer != null) {
+            writer.close();
+        }
+        Files.move(compacted, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writer = FileChannel.open(manifest, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Applies a line of the manifest
+     *
+     * @param line line without its terminator
+     * @param files filename -> filesize to apply the record to
+     * @return false if the line is damaged
+     */
+    private static boolean applyRecord(String line, Map<String, Long> files) {
+        try {
+            String record = RecordCodec.decode(line);
+            if (record == null) {
+                return false;
+            }
+
+            String[] fields = record.split(" ", 3);
+            switch (fields[0]) {
+                case ADD_RECORD:
+                    files.put(fields[2], Long.parseLong(fields[1]));
+                    return true;
+                case DELETE_RECORD:
+                    files.remove(fields[1]);
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+}
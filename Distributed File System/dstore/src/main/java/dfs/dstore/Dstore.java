@@ -0,0 +1,840 @@
+package dfs.dstore;
+
+import dfs.protocol.FileTransfer;
+import dfs.protocol.HandlerThreads;
+import dfs.protocol.Log;
+import dfs.protocol.Metrics;
+import dfs.protocol.Protocol;
+import dfs.protocol.RateLimiter;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Stores and serves all files received from clients */
+public class Dstore {
+
+    /** DStore port */
+    private final int port;
+
+    /** Controller port */
+    private final int cport;
+
+    /** Timeout in milliseconds */
+    private final int timeout;
+
+    /** Folder location for storing files */
+    private final String fileFolder;
+
+    /** Filename -> FileSize */
+    private final Map<String, Long> files = new ConcurrentHashMap<>();
+
+    /** Durable record of all stored files, kept next to the file folder */
+    private final Catalog catalog;
+
+    /** Runs the controller listener and client handlers, on virtual threads if enabled at startup */
+    private final ExecutorService handlers = HandlerThreads.newExecutor("handler");
+
+    /**
+     * Sends files to other DStores while rebalancing, limiting how many are sent at once. Waiting
+     * transfers are queued in order rather than holding a thread each
+     */
+    private final ExecutorService rebalanceTransfers =
+            HandlerThreads.newFixedExecutor("rebalance", Integer.getInteger("dstore.rebalanceTransfers", 4));
+
+    /** Limits the bytes per second sent to other DStores while rebalancing, so loads are not slowed down */
+    private final RateLimiter rebalanceBandwidth = new RateLimiter(Long.getLong("dstore.rebalanceBandwidth", 0));
+
+    /** Transfer counters and latencies, sent to anyone asking with STATS */
+    private final Metrics metrics = new Metrics();
+
+    /** Amount of files being received or sent right now */
+    private final AtomicInteger transfersInFlight = new AtomicInteger();
+
+    /** Delay in milliseconds before the first retry of connecting to the controller, doubled after every failure */
+    private static final long RECONNECT_INITIAL_DELAY = 50;
+
+    /** Longest delay in milliseconds between attempts to connect to the controller */
+    private static final long RECONNECT_MAX_DELAY = Long.getLong("dstore.reconnectMaxDelay", 2000);
+
+    /** Socket for communicating with controller, replaced when reconnecting */
+    private volatile Socket controllerSocket;
+
+    /** DStore socket */
+    private ServerSocketChannel serverSocket;
+
+    /** Address of controller, set to localhost */
+    private final String controllerAddress = "127.0.0.1";
+
+    /** Used to send messages to Controller */
+    private volatile PrintWriter controllerSocketWriter;
+
+    /** Used to receive messages from Controller */
+    private volatile BufferedReader controllerSocketReader;
+
+    public static void main(String[] args) {
+        try {
+            final int port = Integer.parseInt(args[0]);
+            final int cport = Integer.parseInt(args[1]);
+            final int timeout = Integer.parseInt(args[2]);
+            final String fileFolder = args[3];
+
+            // launch the DStore
+            new Dstore(port, cport, timeout, fileFolder);
+        } catch (Exception e) {
+            Log.error("Error parsing import");
+        }
+    }
+
+    public Dstore(int port, int cport, int timeout, String fileFolder) {
+        this.port = port;
+        this.cport = cport;
+        this.timeout = timeout;
+        this.fileFolder = fileFolder;
+        this.catalog = new Catalog(fileFolder);
+        metrics.gauge("files", files::size);
+        metrics.gauge("transfers.in_flight", transfersInFlight::get);
+
+        loadCatalog();
+        createControllerSocket();
+        createClientReceiverSocket();
+    }
+
+    /** Restores the stored files from the catalog, so files survive a restart */
+    private void loadCatalog() {
+        long startTime = getCurrentTime();
+        try {
+            if (catalog.exists()) {
+                files.putAll(catalog.load());
+                handlers.execute(this::removeOrphanFiles);
+            } else {
+                // First start with a catalog, adopt whatever is in the folder
+                addFolderFilesToHashMap();
+                catalog.load();
+                catalog.recordAll(files);
+            }
+            Log.info("Restored {} files in {}ms", files.size(), (getCurrentTime() - startTime));
+        } catch (IOException e) {
+            Log.error("Error in loading catalog: {}", e);
+        }
+    }
+
+    /** Removes files in the file folder which are not in the catalog, such as partly stored files */
+    private void removeOrphanFiles() {
+        File[] folderFiles = new File(fileFolder).listFiles();
+        if (folderFiles == null) {
+            return;
+        }
+        for (File file : folderFiles) {
+            if (file.isFile() && !files.containsKey(file.getName())) {
+                Log.info("Removing file missing from catalog: {}", file.getName());
+                file.delete();
+            }
+        }
+    }
+
+    /** Adds all files located in the directory to a hash map */
+    private void addFolderFilesToHashMap() {
+        // Create folder
+        File folder = new File(fileFolder);
+        if (!folder.exists()) {
+            Log.info("Creating folder");
+            folder.mkdir();
+        }
+
+        // Add each file to hashmap
+        File[] files = folder.listFiles();
+        for (File file : files) {
+            if (file.isFile()) {
+                this.files.put(file.getName(), file.length());
+            }
+        }
+    }
+
+    /** Creates a controller socket, exiting if the controller cannot be reached within the timeout */
+    private void createControllerSocket() {
+        if (!connectToController(timeout)) {
+            Log.error("Error in communicating with socket, timeout has occurred");
+            System.exit(1);
+            return;
+        }
+
+        // Create communicator thread
+        handlers.execute(this::listenToController);
+    }
+
+    /**
+     * Connects to the controller and joins it, sleeping between failed attempts with exponential
+     * backoff instead of retrying in a loop
+     *
+     * @param patience milliseconds to keep trying, 0 to keep trying until connected
+     * @return false if the controller could not be reached in time
+     */
+    private boolean connectToController(long patience) {
+        long deadline = getCurrentTime() + patience;
+        long delay = RECONNECT_INITIAL_DELAY;
+        while (true) {
+            try {
+                Socket socket = new Socket(controllerAddress, cport);
+                controllerSocketWriter = new PrintWriter(socket.getOutputStream());
+                controllerSocketReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                controllerSocket = socket;
+                Log.info("Connected to controller server");
+                sendControllerMessage(Protocol.JOIN_TOKEN + " " + port);
+                return true;
+            } catch (IOException e) {
+                // Controller is not listening yet
+            }
+
+            long wait = delay;
+            if (patience > 0) {
+                long remaining = deadline - getCurrentTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait = Math.min(delay, remaining);
+            }
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            delay = Math.min(delay * 2, RECONNECT_MAX_DELAY);
+        }
+    }
+
+    /** Handles messages from the controller, joining it again whenever the connection is lost */
+    private void listenToController() {
+        while (true) {
+            try {
+                String line;
+                while ((line = controllerSocketReader.readLine()) != null) {
+                    try {
+                        handleControllerMessage(line);
+                    } catch (RuntimeException e) {
+                        Log.error("Error in handling controller message \"{}\": {}", line, e);
+                    }
+                }
+                Log.warn("Controller closed the connection, reconnecting");
+            } catch (IOException e) {
+                Log.warn("Lost connection to controller, reconnecting: {}", e.getMessage());
+            }
+
+            try {
+                controllerSocket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+            if (!connectToController(0)) {
+                return;
+            }
+        }
+    }
+
+	/** Creates a client receiver socket */
+	private void createClientReceiverSocket(){
+		handlers.execute(() ->{
+			try{
+				serverSocket = ServerSocketChannel.open();
+				serverSocket.bind(new InetSocketAddress(port));
+
+				while(true){
+					//Create a new socket
+					SocketChannel client = serverSocket.accept();
+
+					//Create a new client and start thread
+					ClientDStore clientDStore = new ClientDStore(client);
+					handlers.execute(clientDStore);
+				}
+			} catch (Exception e){
+				Log.error("{}", e.getMessage());
+			}
+		});
+	}
+
+    /**
+     * Handles a Controller message
+     *
+     * @param message message from Controller
+     */
+    private void handleControllerMessage(String message) {
+        Log.trace("Received message \"{}\" from Controller", message);
+
+        String[] splitMessage = message.split(" ");
+        switch (splitMessage[0]) {
+            case Protocol.LIST_TOKEN:
+                sendControllerMessage(listFiles());
+                break;
+            case Protocol.LIST_SIZES_TOKEN:
+                sendControllerMessage(listFileSizes());
+                break;
+            case Protocol.REMOVE_TOKEN:
+                removeFile(splitMessage[1]);
+                break;
+            case Protocol.REMOVE_BATCH_TOKEN:
+                removeFiles(Arrays.asList(splitMessage).subList(1, splitMessage.length));
+                break;
+            case Protocol.REBALANCE_TOKEN:
+                handlers.execute(() -> rebalance(message));
+                break;
+            case Protocol.PING_TOKEN:
+                sendControllerMessage(Protocol.PONG_TOKEN);
+                break;
+        }
+    }
+
+    /**
+     * Sends files to other DStores and removes files, as told by a REBALANCE message. Files are sent
+     * in parallel, and only once every file has been sent are files removed
+     *
+     * @param message REBALANCE message
+     */
+    private void rebalance(String message) {
+        try {
+            String[] splitMessage = message.split(" ");
+            int i = 1;
+
+            // Send every file to every DStore it has to go to
+            ArrayList<CompletableFuture<Boolean>> transfers = new ArrayList<>();
+            int filesToSend = Integer.parseInt(splitMessage[i++]);
+            for (int file = 0; file < filesToSend; file++) {
+                String filename = splitMessage[i++];
+                int dstoreCount = Integer.parseInt(splitMessage[i++]);
+                for (int dstore = 0; dstore < dstoreCount; dstore++) {
+                    int destination = Integer.parseInt(splitMessage[i++]);
+                    transfers.add(CompletableFuture.supplyAsync(() -> sendRebalanceFile(filename, destination), rebalanceTransfers));
+                }
+            }
+
+            int filesToRemove = Integer.parseInt(splitMessage[i++]);
+            String[] filenames = Arrays.copyOfRange(splitMessage, i, i + filesToRemove);
+
+            boolean sent = true;
+            for (CompletableFuture<Boolean> transfer : transfers) {
+                sent &= transfer.join();
+            }
+            if (!sent) {
+                Log.warn("Not all files could be sent to other DStores, keeping all files");
+                return;
+            }
+
+            for (String filename : filenames) {
+                deleteFile(filename);
+            }
+            sendControllerMessage(Protocol.REBALANCE_COMPLETE_TOKEN);
+        } catch (Exception e) {
+            Log.error("Error in rebalancing: {}", e);
+        }
+    }
+
+    /**
+     * Sends a file to another DStore
+     *
+     * @param filename name of file
+     * @param destination port of the DStore
+     * @return whether the whole file was sent
+     */
+    private boolean sendRebalanceFile(String filename, int destination) {
+        Path path = Paths.get(fileFolder, filename);
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(controllerAddress, destination));
+                FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            Socket socket = channel.socket();
+            socket.setSoTimeout(timeout);
+            PrintWriter writer = new PrintWriter(socket.getOutputStream());
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+            long size = file.size();
+            writer.println(Protocol.REBALANCE_STORE_TOKEN + " " + filename + " " + size);
+            writer.flush();
+            if (!Protocol.ACK_TOKEN.equals(reader.readLine())) {
+                Log.warn("DStore: {} did not acknowledge {}", destination, filename);
+                return false;
+            }
+
+            long sent = FileTransfer.send(file, 0, size, channel, rebalanceBandwidth);
+            metrics.counter("bytes.rebalanced").add(sent);
+            return sent == size;
+        } catch (IOException e) {
+            Log.error("Error in sending {} to DStore: {}", filename, destination + " " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Creates a LIST_TOKEN message for listing all files in the DStore
+     *
+     * @return list of all files
+     */
+    private String listFiles() {
+        StringBuilder message = new StringBuilder(Protocol.LIST_TOKEN);
+        for (String filename : files.keySet()) {
+            message.append(" " + filename);
+        }
+        return message.toString();
+    }
+
+    /**
+     * Creates a LIST_SIZES_TOKEN message for listing all files in the DStore with their sizes
+     *
+     * @return list of all files and their sizes
+     */
+    private String listFileSizes() {
+        StringBuilder message = new StringBuilder(Protocol.LIST_SIZES_TOKEN);
+        files.forEach((filename, size) -> message.append(' ').append(filename).append(' ').append(size));
+        return message.toString();
+    }
+
+    /**
+     * Sends a message to the controller
+     *
+     * @param message message to send
+     */
+    private void sendControllerMessage(String message) {
+        Log.trace("Sending message \"{}\" to Controller", message);
+        controllerSocketWriter.println(message);
+        controllerSocketWriter.flush();
+    }
+
+    /**
+     * Removes a file from the DStore
+     *
+     * @param filename name of the file
+     */
+    private void removeFile(String filename) {
+        // If the file does not exist, send an error
+        if (!deleteFile(filename)) {
+            sendControllerMessage(Protocol.ERROR_FILE_DOES_NOT_EXIST_TOKEN + " " + filename);
+            return;
+        }
+        sendControllerMessage(Protocol.REMOVE_ACK_TOKEN + " " + filename);
+    }
+
+    /**
+     * Removes many files, recording them in the catalog at once, and acknowledges them all with
+     * one message. Files the DStore does not have count as removed
+     *
+     * @param filenames names of the files
+     */
+    private void removeFiles(List<String> filenames) {
+        ArrayList<String> present = new ArrayList<>();
+        for (String filename : filenames) {
+            if (files.containsKey(filename)) {
+                present.add(filename);
+            }
+        }
+
+        try {
+            catalog.recordRemoves(present);
+        } catch (IOException e) {
+            Log.error("Error in recording removals in catalog: {}", e);
+        }
+        for (String filename : present) {
+            new File(fileFolder + File.separator + filename).delete();
+            files.remove(filename);
+        }
+        sendControllerMessage(Protocol.REMOVE_ACK_BATCH_TOKEN + " " + String.join(" ", filenames));
+    }
+
+    /**
+     * Deletes a file from the folder and the catalog
+     *
+     * @param filename name of the file
+     * @return false if the file does not exist
+     */
+    private boolean deleteFile(String filename) {
+        if (!files.containsKey(filename)) {
+            return false;
+        }
+
+        try {
+            catalog.recordRemove(filename);
+        } catch (IOException e) {
+            Log.error("Error in recording removal in catalog: {}", e);
+        }
+        File file = new File(fileFolder + File.separator + filename);
+        file.delete();
+        files.remove(filename);
+        return true;
+    }
+
+    /**
+     * Gets the current time
+     *
+     * @return UNIX EPOCH time in long form
+     */
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** A class used for handling messages sent from the Client to the DStore */
+    public class ClientDStore implements MessageReceiverWriter {
+
+        /** Socket connection, used directly for streaming file content */
+        private final SocketChannel channel;
+
+        /** Socket of the channel */
+        private final Socket socket;
+
+        /** Used to read messages sent from client */
+        private final BufferedReader messageReader;
+
+        /** Used to write messages to client */
+        private final PrintWriter messageWriter;
+
+        /** Reads file content through the socket stream, which unlike the channel honours SO_TIMEOUT */
+        private final ReadableByteChannel contentReader;
+
+        public ClientDStore(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.socket = channel.socket();
+            this.messageReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.contentReader = Channels.newChannel(socket.getInputStream());
+            this.messageWriter = new PrintWriter(socket.getOutputStream());
+        }
+
+        /** Listens to messages sent from the client */
+        @Override
+        public void run() {
+            // Receive messages
+            try {
+                String line;
+                // Handling a message closes the socket when the client has to see it fail
+                while (!socket.isClosed() && (line = messageReader.readLine()) != null) handleMessage(line);
+                socket.close();
+                Log.debug("Closing socket");
+            } catch (Exception e) {
+                Log.error("Error: {}", e);
+            }
+        }
+
+        /**
+         * Handles a message from the client
+         *
+         * @param message message sent from client
+         */
+        public synchronized void handleMessage(String message) {
+            Log.trace("Message: \"{}\" received from Client", message);
+
+            String[] splitMessage = message.split(" ");
+            try {
+                switch (splitMessage[0]) {
+                    case Protocol.STORE_TOKEN:
+                        storeFile(splitMessage[1], splitMessage[2], true);
+                        break;
+                    case Protocol.REBALANCE_STORE_TOKEN:
+                        storeFile(splitMessage[1], splitMessage[2], false);
+                        break;
+                    case Protocol.STORE_BATCH_TOKEN:
+                        storeFiles(splitMessage);
+                        break;
+                    case Protocol.STORE_CHAIN_TOKEN:
+                        storeChainFile(splitMessage[1], splitMessage[2],
+                                Arrays.asList(splitMessage).subList(3, splitMessage.length));
+                        break;
+                    case Protocol.LOAD_DATA_TOKEN:
+                        if (splitMessage.length >= 4) {
+                            loadFile(splitMessage[1], parseSize(splitMessage[2]), parseSize(splitMessage[3]));
+                        } else {
+                            loadFile(splitMessage[1], 0, Long.MAX_VALUE);
+                        }
+                        break;
+                    case Protocol.STATS_TOKEN:
+                        sendClientMessage(metrics.render());
+                        break;
+                }
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                // Nothing has been sent or received yet, and closing is how a DStore fails a request
+                Log.warn("Client sent a malformed message \"{}\", closing connection", message);
+                try {
+                    socket.close();
+                } catch (IOException closeError) {
+                    Log.error("Error in closing socket: {}", closeError);
+                }
+            }
+        }
+
+        /**
+         * Parses a size, offset or length sent by the client
+         *
+         * @param field field of the message
+         * @return value
+         * @throws NumberFormatException if the field is not a number or is negative
+         */
+        private long parseSize(String field) {
+            long value = Long.parseLong(field);
+            if (value < 0) {
+                throw new NumberFormatException("Negative size: " + field);
+            }
+            return value;
+        }
+
+        /**
+         * Stores a file
+         *
+         * @param filename name of file
+         * @param filesize size of file
+         * @param acknowledge whether to send a STORE_ACK to the Controller, false for files sent by
+         *     another DStore while rebalancing
+         */
+        private void storeFile(String filename, String filesize, boolean acknowledge) {
+            storeFile(filename, parseSize(filesize), acknowledge, null);
+        }
+
+        /**
+         * Stores a file while forwarding it to the rest of a replication chain, so the client only
+         * sends it once. Every DStore in the chain sends its own STORE_ACK, so the Controller
+         * completes the store once the tail has the file. A broken link only loses the copies
+         * after it, which the Controller sees as missing acknowledgements
+         *
+         * @param filename name of file
+         * @param filesize size of file
+         * @param chain ports of the DStores after this one, in order
+         */
+        private void storeChainFile(String filename, String filesize, List<String> chain) {
+            long size = parseSize(filesize);
+            SocketChannel next = chain.isEmpty() ? null : openChainLink(filename, size, chain);
+            try {
+                storeFile(filename, size, true, next);
+            } finally {
+                if (next != null) {
+                    try {
+                        next.close();
+                    } catch (IOException e) {
+                        Log.error("Error in closing chain link: {}", e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Connects to the next DStore of a replication chain and waits for it to accept the file
+         *
+         * @param filename name of file
+         * @param size size of file
+         * @param chain ports of the DStores after this one, in order
+         * @return connection to stream the file to, null if the DStore cannot be reached
+         */
+        private SocketChannel openChainLink(String filename, long size, List<String> chain) {
+            int port = Integer.parseInt(chain.get(0));
+            SocketChannel next = null;
+            try {
+                next = SocketChannel.open(new InetSocketAddress(controllerAddress, port));
+                Socket nextSocket = next.socket();
+                nextSocket.setSoTimeout(timeout);
+                PrintWriter writer = new PrintWriter(nextSocket.getOutputStream());
+                BufferedReader reader = new BufferedReader(new InputStreamReader(nextSocket.getInputStream()));
+
+                StringBuilder message = new StringBuilder(Protocol.STORE_CHAIN_TOKEN)
+                        .append(' ').append(filename).append(' ').append(size);
+                chain.subList(1, chain.size()).forEach(rest -> message.append(' ').append(rest));
+                writer.println(message);
+                writer.flush();
+                if (Protocol.ACK_TOKEN.equals(reader.readLine())) {
+                    return next;
+                }
+                Log.warn("DStore: {} did not acknowledge {}", port, filename);
+            } catch (IOException e) {
+                Log.error("Error in forwarding {} to DStore: {}", filename, port + " " + e);
+            }
+
+            if (next != null) {
+                try {
+                    next.close();
+                } catch (IOException e) {
+                    Log.error("Error in closing chain link: {}", e);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Stores a file, forwarding it to another DStore as it arrives
+         *
+         * @param filename name of file
+         * @param size size of file
+         * @param acknowledge whether to send a STORE_ACK to the Controller
+         * @param next connection to the next DStore of a replication chain, null if none
+         */
+        private void storeFile(String filename, long size, boolean acknowledge, SocketChannel next) {
+            try {
+                // Send an ACK token
+                sendClientMessage(Protocol.ACK_TOKEN);
+                if (!receiveFile(filename, size, next)) {
+                    return;
+                }
+
+                catalog.recordStore(filename, size);
+                // Only listed once it is complete and will still be there after a restart
+                files.put(filename, size);
+                if (acknowledge) {
+                    sendControllerMessage(Protocol.STORE_ACK_TOKEN + " " + filename);
+                }
+            } catch (Exception e) {
+                Log.error("{}", e.getMessage());
+            }
+        }
+
+        /**
+         * Stores many files sent one after another on the connection, recording them in the
+         * catalog at once and acknowledging them all with one message
+         *
+         * @param splitMessage STORE_BATCH message, followed by filename and filesize pairs
+         */
+        private void storeFiles(String[] splitMessage) {
+            // Every size is checked before the ACK, as a bad one later on would leave the stream unreadable
+            long[] sizes = new long[(splitMessage.length - 1) / 2];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = parseSize(splitMessage[2 * i + 2]);
+            }
+
+            LinkedHashMap<String, Long> stored = new LinkedHashMap<>();
+            try {
+                sendClientMessage(Protocol.ACK_TOKEN);
+                for (int i = 1; i + 1 < splitMessage.length; i += 2) {
+                    long size = sizes[i / 2];
+                    // Files after a broken one cannot be told apart in the stream, so stop
+                    if (!receiveFile(splitMessage[i], size, null)) {
+                        break;
+                    }
+                    stored.put(splitMessage[i], size);
+                }
+            } catch (Exception e) {
+                Log.error("{}", e.getMessage());
+            }
+
+            if (stored.isEmpty()) {
+                return;
+            }
+            try {
+                catalog.recordStores(stored);
+            } catch (IOException e) {
+                // Acknowledging files missing from the catalog would lose them on restart
+                Log.error("Error in recording stores in catalog, not acknowledging the batch: {}", e);
+                return;
+            }
+            files.putAll(stored);
+            sendControllerMessage(Protocol.STORE_ACK_BATCH_TOKEN + " " + String.join(" ", stored.keySet()));
+        }
+
+        /**
+         * Receives a file straight from the socket to disk, forwarding it to another DStore as it
+         * arrives
+         *
+         * @param filename name of file
+         * @param size size of file
+         * @param next connection to the next DStore of a replication chain, null if none
+         * @return false if the connection ended or stalled for longer than the timeout before the
+         *         whole file was received
+         * @throws IOException if the file cannot be written
+         */
+        private boolean receiveFile(String filename, long size, SocketChannel next) throws IOException {
+            Path path = Paths.get(fileFolder, filename);
+            long startTime = System.nanoTime();
+            long received = 0;
+            transfersInFlight.incrementAndGet();
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                socket.setSoTimeout(timeout);
+                try {
+                    received = FileTransfer.relay(contentReader, file, size, next);
+                } catch (SocketTimeoutException e) {
+                    // The rest of the file may still arrive, so the stream cannot be read as messages again
+                    Log.warn("Client stalled for {}ms while storing {}", timeout, filename);
+                    socket.close();
+                } finally {
+                    if (!socket.isClosed()) {
+                        socket.setSoTimeout(0);
+                    }
+                }
+                file.force(false);
+            } finally {
+                transfersInFlight.decrementAndGet();
+                metrics.counter("bytes.in").add(received);
+            }
+
+            if (received < size) {
+                Log.warn("Failed to store file to DStore, received {} of {} bytes", received, size);
+                metrics.increment("stores.failed");
+                // Any earlier copy was overwritten, so it is gone too
+                files.remove(filename);
+                Files.deleteIfExists(path);
+                return false;
+            }
+            metrics.histogram("latency.store").record(System.nanoTime() - startTime);
+            return true;
+        }
+
+        /**
+         * Loads part of a file to send to client. The connection is closed if the file does not
+         * exist or the range starts outside it, so the client sees the load fail
+         *
+         * @param filename name of file
+         * @param offset position of the first byte to send
+         * @param length amount of bytes to send, cut short at the end of the file
+         */
+        private void loadFile(String filename, long offset, long length) {
+            try {
+                // Gets the file
+                Path path = Paths.get(fileFolder, filename);
+                if (!Files.exists(path)) {
+                    metrics.increment("loads.missing");
+                    socket.close();
+                    return;
+                }
+
+                // Send the file content straight from disk to the socket
+                try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                    if (offset < 0 || length < 0 || offset > file.size()) {
+                        socket.close();
+                        return;
+                    }
+                    long startTime = System.nanoTime();
+                    transfersInFlight.incrementAndGet();
+                    try {
+                        metrics.counter("bytes.out").add(
+                                FileTransfer.send(file, offset, Math.min(length, file.size() - offset), channel));
+                        metrics.histogram("latency.load").record(System.nanoTime() - startTime);
+                    } finally {
+                        transfersInFlight.decrementAndGet();
+                    }
+                }
+            } catch (Exception e) {
+                Log.info("{}", e.getMessage());
+            }
+        }
+
+        /**
+         * Sends a message to the client
+         *
+         * @param message message to send
+         */
+        private void sendClientMessage(String message) {
+            Log.trace("Sending message \"{}\" to Client", message);
+            messageWriter.println(message);
+            messageWriter.flush();
+        }
+    }
+}
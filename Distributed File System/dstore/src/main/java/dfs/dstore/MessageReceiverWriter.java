@@ -1,3 +1,5 @@
+package dfs.dstore;
+
 public interface MessageReceiverWriter extends Runnable {
 	void handleMessage(String message);
 }
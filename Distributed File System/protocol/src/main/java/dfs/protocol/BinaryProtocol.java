@@ -0,0 +1,208 @@
+package dfs.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * A compact binary framing of the client protocol, used instead of text lines by clients which
+ * send {@link #MAGIC} as the first byte of their connection. Every frame is
+ *
+ * <pre>
+ *   int    length of the rest of the frame
+ *   byte   opcode, the index of the command in the table of commands
+ *   int    request ID, echoed by the reply
+ *   int    amount of arguments
+ *   per argument: unsigned short length, then the UTF-8 bytes
+ * </pre>
+ *
+ * Frames are decoded in place from the read buffer, only allocating the argument strings
+ */
+public class BinaryProtocol {
+
+    /** First byte of a binary connection, which can never start a UTF-8 text message */
+    public static final byte MAGIC = (byte) 0xB1;
+
+    /** Size of the length prefix of a frame */
+    public static final int LENGTH_SIZE = 4;
+
+    /** Maximum length of a frame, not counting the length prefix */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /** Commands in opcode order, new commands are only ever appended */
+    private static final String[] COMMANDS = {
+        Protocol.LIST_TOKEN,
+        Protocol.STORE_TOKEN,
+        Protocol.LOAD_TOKEN,
+        Protocol.RELOAD_TOKEN,
+        Protocol.REMOVE_TOKEN,
+        Protocol.LOAD_ALL_TOKEN,
+        Protocol.STORE_TO_TOKEN,
+        Protocol.STORE_COMPLETE_TOKEN,
+        Protocol.LOAD_FROM_TOKEN,
+        Protocol.LOAD_FROM_ALL_TOKEN,
+        Protocol.REMOVE_COMPLETE_TOKEN,
+        Protocol.ERROR_FILE_DOES_NOT_EXIST_TOKEN,
+        Protocol.ERROR_FILE_ALREADY_EXISTS_TOKEN,
+        Protocol.ERROR_NOT_ENOUGH_DSTORES_TOKEN,
+        Protocol.ERROR_LOAD_TOKEN,
+        Protocol.STORE_BATCH_TOKEN,
+        Protocol.STORE_BATCH_TO_TOKEN,
+        Protocol.STORE_BATCH_COMPLETE_TOKEN,
+        Protocol.LOAD_BATCH_TOKEN,
+        Protocol.LOAD_FROM_BATCH_TOKEN,
+        Protocol.REMOVE_BATCH_TOKEN,
+        Protocol.REMOVE_BATCH_COMPLETE_TOKEN,
+        Protocol.STATS_TOKEN,
+        Protocol.ERROR_MALFORMED_REQUEST_TOKEN,
+    };
+
+    /** command -> opcode */
+    private static final HashMap<String, Integer> OPCODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            OPCODES.put(COMMANDS[i], i);
+        }
+    }
+
+    private BinaryProtocol() {}
+
+    /**
+     * Decodes a frame from a heap buffer, leaving the buffer positioned after it
+     *
+     * @param buffer buffer positioned after the length prefix of the frame
+     * @param length length of the frame, not counting the length prefix
+     * @return request
+     * @throws ProtocolException if the frame is malformed
+     */
+    public static Request decode(ByteBuffer buffer, int length) throws ProtocolException {
+        int end = buffer.position() + length;
+        try {
+            int opcode = buffer.get() & 0xFF;
+            if (opcode >= COMMANDS.length) {
+                throw new ProtocolException("Unknown opcode " + opcode);
+            }
+            int id = buffer.getInt();
+            int arguments = buffer.getInt();
+            if (arguments < 0 || arguments > length) {
+                throw new ProtocolException("Malformed amount of arguments " + arguments);
+            }
+
+            String[] fields = new String[arguments + 1];
+            fields[0] = COMMANDS[opcode];
+            for (int i = 1; i <= arguments; i++) {
+                int fieldLength = buffer.getShort() & 0xFFFF;
+                if (buffer.position() + fieldLength > end) {
+                    throw new ProtocolException("Argument runs past the end of the frame");
+                }
+                fields[i] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                        fieldLength, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + fieldLength);
+            }
+            if (buffer.position() != end) {
+                throw new ProtocolException("Frame length does not match its content");
+            }
+            return new Request(id, fields, null);
+        } catch (RuntimeException e) {
+            throw new ProtocolException("Malformed frame: " + e);
+        }
+    }
+
+    /**
+     * Encodes a message as a frame, including the length prefix. The arguments are copied straight
+     * from the UTF-8 bytes of the message, which a space never occurs inside of, without splitting
+     * the message into strings
+     *
+     * @param id request ID of the frame
+     * @param message message in the text protocol
+     * @return buffer ready to be written
+     * @throws IllegalArgumentException if the command has no opcode or an argument is too long
+     */
+    public static ByteBuffer encode(int id, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int commandStart = skipSpaces(bytes, 0);
+        int commandEnd = findSpace(bytes, commandStart);
+        Integer opcode = commandStart == commandEnd ? null : OPCODES.get(commandEnd - commandStart == message.length()
+                ? message : new String(bytes, commandStart, commandEnd - commandStart, StandardCharsets.UTF_8));
+        if (opcode == null) {
+            throw new IllegalArgumentException("No opcode for message: " + message);
+        }
+
+        int arguments = 0;
+        int length = 1 + 4 + 4;
+        for (int start = skipSpaces(bytes, commandEnd); start < bytes.length; ) {
+            int end = findSpace(bytes, start);
+            if (end - start > 0xFFFF) {
+                throw new IllegalArgumentException("Argument too long: " + (end - start) + " bytes");
+            }
+            arguments++;
+            length += 2 + end - start;
+            start = skipSpaces(bytes, end);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + length);
+        frame.putInt(length).put((byte) (int) opcode).putInt(id).putInt(arguments);
+        for (int start = skipSpaces(bytes, commandEnd); start < bytes.length; ) {
+            int end = findSpace(bytes, start);
+            frame.putShort((short) (end - start)).put(bytes, start, end - start);
+            start = skipSpaces(bytes, end);
+        }
+        return frame.flip();
+    }
+
+    /**
+     * Finds the first byte which is not a space
+     *
+     * @param bytes UTF-8 message
+     * @param from index to start from
+     * @return index, the length of the message if there is none
+     */
+    private static int skipSpaces(byte[] bytes, int from) {
+        while (from < bytes.length && bytes[from] == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Finds the next space
+     *
+     * @param bytes UTF-8 message
+     * @param from index to start from
+     * @return index, the length of the message if there is none
+     */
+    private static int findSpace(byte[] bytes, int from) {
+        while (from < bytes.length && bytes[from] != ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Reads a frame from a blocking stream, for clients
+     *
+     * @param in stream to read from
+     * @return request, null at the end of the stream
+     * @throws IOException if the frame is malformed or the stream ends inside it
+     */
+    public static Request read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new ProtocolException("Malformed frame length " + length);
+        }
+
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return decode(ByteBuffer.wrap(frame), length);
+    }
+}
@@ -0,0 +1,149 @@
+package dfs.protocol;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams file content between sockets and disk with {@link FileChannel#transferTo} and {@link
+ * FileChannel#transferFrom}, so the bytes never pass through the heap and the memory used by a
+ * transfer does not depend on the size of the file
+ */
+public class FileTransfer {
+
+    /** Maximum amount of bytes moved by a single transfer call */
+    private static final long CHUNK_SIZE = 8L * 1024 * 1024;
+
+    /** Maximum amount of bytes moved by a single transfer call while rate limited, so sends stay smooth */
+    private static final long LIMITED_CHUNK_SIZE = 256L * 1024;
+
+    /** Size of the buffer content is relayed through */
+    private static final int RELAY_BUFFER_SIZE = 256 * 1024;
+
+    private FileTransfer() {}
+
+    /**
+     * Receives file content from a channel and writes it to a file
+     *
+     * @param source channel to read from, in blocking mode
+     * @param file file to write to
+     * @param position position in the file to start writing at
+     * @param length amount of bytes to receive
+     * @return amount of bytes received, less than length if the source reached end of stream
+     * @throws IOException if reading or writing fails
+     */
+    public static long receive(ReadableByteChannel source, FileChannel file, long position, long length)
+            throws IOException {
+        long received = 0;
+        while (received < length) {
+            long transferred =
+                    file.transferFrom(source, position + received, Math.min(CHUNK_SIZE, length - received));
+            if (transferred <= 0) {
+                // A blocking source only returns nothing at end of stream
+                break;
+            }
+            received += transferred;
+        }
+        return received;
+    }
+
+    /**
+     * Receives file content from a channel, writing it to a file and forwarding it to another
+     * channel as it arrives. If forwarding fails the rest is only written to the file
+     *
+     * @param source channel to read from, in blocking mode
+     * @param file file to write to, from its start
+     * @param length amount of bytes to receive
+     * @param next channel to forward to, in blocking mode, null to only write to the file
+     * @return amount of bytes received, less than length if the source reached end of stream
+     * @throws IOException if reading or writing the file fails
+     */
+    public static long relay(ReadableByteChannel source, FileChannel file, long length, WritableByteChannel next)
+            throws IOException {
+        if (next == null) {
+            return receive(source, file, 0, length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(RELAY_BUFFER_SIZE);
+        long received = 0;
+        while (received < length) {
+            buffer.clear().limit((int) Math.min(RELAY_BUFFER_SIZE, length - received));
+            if (source.read(buffer) < 0) {
+                break;
+            }
+            buffer.flip();
+
+            while (buffer.hasRemaining()) {
+                file.write(buffer, received + buffer.position());
+            }
+            if (next != null) {
+                buffer.rewind();
+                try {
+                    while (buffer.hasRemaining()) {
+                        next.write(buffer);
+                    }
+                } catch (IOException e) {
+                    Log.warn("Stopped forwarding after {} bytes: {}", received, e);
+                    next = null;
+                }
+            }
+            received += buffer.limit();
+        }
+        return received;
+    }
+
+    /**
+     * Sends part of a file to a channel
+     *
+     * @param file file to read from
+     * @param position position in the file to start reading at
+     * @param length amount of bytes to send
+     * @param target channel to write to, in blocking mode
+     * @return amount of bytes sent, less than length if the file is shorter than expected
+     * @throws IOException if reading or writing fails
+     */
+    public static long send(FileChannel file, long position, long length, WritableByteChannel target)
+            throws IOException {
+        return send(file, position, length, target, null);
+    }
+
+    /**
+     * Sends part of a file to a channel, no faster than a rate limiter allows
+     *
+     * @param file file to read from
+     * @param position position in the file to start reading at
+     * @param length amount of bytes to send
+     * @param target channel to write to, in blocking mode
+     * @param limiter limiter shared by the transfers to limit together, null for no limit
+     * @return amount of bytes sent, less than length if the file is shorter than expected
+     * @throws IOException if reading or writing fails, or the transfer is interrupted
+     */
+    public static long send(FileChannel file, long position, long length, WritableByteChannel target,
+            RateLimiter limiter) throws IOException {
+        boolean limited = limiter != null && limiter.isLimited();
+        long chunkSize = limited ? LIMITED_CHUNK_SIZE : CHUNK_SIZE;
+        long sent = 0;
+        while (sent < length) {
+            long transferred =
+                    file.transferTo(position + sent, Math.min(chunkSize, length - sent), target);
+            if (transferred <= 0) {
+                // End of file has been reached
+                break;
+            }
+            sent += transferred;
+
+            if (limited) {
+                try {
+                    limiter.acquire(transferred);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Transfer interrupted after " + sent + " bytes");
+                }
+            }
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,88 @@
+package dfs.protocol;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors which run the blocking connection handlers of the Controller and DStores.
+ * Started with -Ddfs.threads=virtual, every handler runs on its own virtual thread, otherwise on a
+ * platform thread
+ */
+public class HandlerThreads {
+
+    /** Whether virtual threads have been requested at startup and are supported by the JVM */
+    private static final boolean VIRTUAL = "virtual".equals(System.getProperty("dfs.threads"))
+            && supportsVirtualThreads();
+
+    private HandlerThreads() {}
+
+    /**
+     * Checks if handlers are run on virtual threads
+     *
+     * @return boolean
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL;
+    }
+
+    /**
+     * Creates an executor which starts a new thread for every task
+     *
+     * @param name name prefix for platform threads
+     * @return executor
+     */
+    public static ExecutorService newExecutor(String name) {
+        if (VIRTUAL) {
+            return createVirtualExecutor();
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newCachedThreadPool(
+                runnable -> new Thread(runnable, name + "-" + threadCount.incrementAndGet()));
+    }
+
+    /**
+     * Creates an executor which runs tasks on a fixed amount of platform threads, queueing the rest
+     * in order. Used where the amount of tasks running at once has to be bounded
+     *
+     * @param name name prefix for the threads
+     * @param threads amount of threads
+     * @return executor
+     */
+    public static ExecutorService newFixedExecutor(String name, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads,
+                runnable -> new Thread(runnable, name + "-" + threadCount.incrementAndGet()));
+    }
+
+    /**
+     * Checks if the JVM can create virtual threads
+     *
+     * @return boolean
+     */
+    private static boolean supportsVirtualThreads() {
+        ExecutorService executor = createVirtualExecutor();
+        if (executor == null) {
+            Log.warn("Virtual threads are not supported by this JVM, using platform threads");
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+
+    /**
+     * Creates a virtual thread per task executor, looked up at runtime so the sources still compile
+     * on JDKs without virtual threads
+     *
+     * @return executor, or null if virtual threads are unavailable
+     */
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            return (ExecutorService)
+                    Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
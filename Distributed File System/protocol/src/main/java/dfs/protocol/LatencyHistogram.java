@@ -0,0 +1,130 @@
+package dfs.protocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets of logarithmically growing width, in the style of HdrHistogram. Every
+ * power of two is split into 16 buckets, so a percentile is accurate to within about 6% whatever
+ * its size, in a fixed 5 KB. Recording is lock free and can be done from any thread
+ */
+public class LatencyHistogram {
+
+    /** Bits of precision kept below the highest set bit of a value */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /** Buckets per power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Largest value counted in microseconds, about 12 days, larger values are counted as this */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    /** Counts of values per bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+    /** Amount of values recorded */
+    private final LongAdder count = new LongAdder();
+
+    /** Sum of values recorded, in microseconds */
+    private final LongAdder sum = new LongAdder();
+
+    /** Largest value recorded, in microseconds */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.min(MAX_VALUE, Math.max(0, nanos / 1000));
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * Gets the bucket a value is counted in. Values below 2 * SUB_BUCKETS have a bucket each,
+     * larger values share a bucket with values of the same highest bits
+     *
+     * @param value value in microseconds
+     * @return bucket index
+     */
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Gets the largest value counted in a bucket
+     *
+     * @param index bucket index
+     * @return value in microseconds
+     */
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Gets the amount of values recorded
+     *
+     * @return count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the value below which a fraction of the recorded values are
+     *
+     * @param fraction fraction between 0 and 1
+     * @return value in microseconds, 0 if nothing has been recorded
+     */
+    public long getPercentile(double fraction) {
+        long total = 0;
+        long[] snapshot = new long[counts.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Appends the count, mean, p50, p99, p999 and max in microseconds as name=value fields
+     *
+     * @param stats builder to append to
+     * @param name prefix of the field names
+     */
+    public void appendTo(StringBuilder stats, String name) {
+        long recorded = getCount();
+        stats.append(' ').append(name).append(".count=").append(recorded)
+                .append(' ').append(name).append(".mean_us=").append(recorded == 0 ? 0 : sum.sum() / recorded)
+                .append(' ').append(name).append(".p50_us=").append(getPercentile(0.5))
+                .append(' ').append(name).append(".p99_us=").append(getPercentile(0.99))
+                .append(' ').append(name).append(".p999_us=").append(getPercentile(0.999))
+                .append(' ').append(name).append(".max_us=").append(max.get());
+    }
+}
@@ -0,0 +1,322 @@
+package dfs.protocol;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logger of the Controller and DStores. Messages are put in a fixed ring buffer and
+ * written by one background thread, so request threads never wait on the console lock. Started with
+ * -Ddfs.log.level=ERROR, WARN, INFO, DEBUG or TRACE, only messages at that level or above are kept,
+ * INFO by default, so per-message tracing costs one comparison unless enabled. Messages are
+ * templates with {} for each argument and are only formatted by the writer thread. An exception
+ * given as the last argument with no {} left for it is written with its stack trace. When the ring
+ * is full, messages are dropped and counted instead of blocking
+ */
+public final class Log {
+
+    /** Severity of a message, most severe first */
+    public enum Level { ERROR, WARN, INFO, DEBUG, TRACE }
+
+    /** Least severe level written */
+    private static final Level LEVEL = parseLevel(System.getProperty("dfs.log.level"));
+
+    /** Amount of slots in the ring, a power of two */
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(2, Integer.getInteger("dfs.log.buffer", 8192)));
+
+    /** Slots of the ring, reused forever */
+    private static final Entry[] RING = new Entry[CAPACITY];
+
+    /** Sequence of the next slot to be claimed by a logging thread */
+    private static final AtomicLong tail = new AtomicLong();
+
+    /** Sequence of the next slot to be written, only used by whoever holds the writer lock */
+    private static long head;
+
+    /** Messages dropped since the last report because the ring was full */
+    private static final LongAdder dropped = new LongAdder();
+
+    /** Held while draining the ring, by the writer thread or the shutdown hook */
+    private static final Object writerLock = new Object();
+
+    /** Destination of INFO, DEBUG and TRACE messages */
+    private static final Writer out = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8);
+
+    /** Destination of ERROR and WARN messages */
+    private static final Writer err = new OutputStreamWriter(new FileOutputStream(FileDescriptor.err), StandardCharsets.UTF_8);
+
+    /** Thread writing messages */
+    private static final Thread writer;
+
+    /** Whether the writer thread is about to park, so it needs waking for a new message */
+    private static volatile boolean sleeping;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Entry(i);
+        }
+        writer = new Thread(Log::writeForever, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "log-flush"));
+    }
+
+    private Log() {}
+
+    /** A slot of the ring */
+    private static final class Entry {
+
+        /** Sequence of the slot when free for a logging thread, one more when holding a message */
+        private volatile long sequence;
+
+        /** Level of the message */
+        private Level level;
+
+        /** Time the message was logged, in milliseconds since the epoch */
+        private long time;
+
+        /** Name of the thread which logged the message */
+        private String thread;
+
+        /** Message template */
+        private String template;
+
+        /** Arguments substituted for the {} in the template */
+        private Object first, second, third;
+
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Parses a level name
+     *
+     * @param name level name, any case
+     * @return level, INFO if the name is missing or unknown
+     */
+    private static Level parseLevel(String name) {
+        if (name != null) {
+            for (Level level : Level.values()) {
+                if (level.name().equalsIgnoreCase(name)) {
+                    return level;
+                }
+            }
+        }
+        return Level.INFO;
+    }
+
+    /**
+     * Checks if messages of a level are written
+     *
+     * @param level level
+     * @return boolean
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) <= 0;
+    }
+
+    /**
+     * Logs an error with the stack trace of the exception which caused it
+     *
+     * @param message message, a {} in it is filled with the exception instead of its stack trace
+     * @param thrown exception which caused the error
+     */
+    public static void error(String message, Throwable thrown) {
+        log(Level.ERROR, message, thrown, null, null);
+    }
+
+    // Shorthands of log for each level, without varargs so disabled messages allocate nothing
+    public static void error(String template) { log(Level.ERROR, template, null, null, null); }
+    public static void error(String template, Object first) { log(Level.ERROR, template, first, null, null); }
+    public static void error(String template, Object first, Object second) { log(Level.ERROR, template, first, second, null); }
+    public static void error(String template, Object first, Object second, Object third) { log(Level.ERROR, template, first, second, third); }
+
+    public static void warn(String template) { log(Level.WARN, template, null, null, null); }
+    public static void warn(String template, Object first) { log(Level.WARN, template, first, null, null); }
+    public static void warn(String template, Object first, Object second) { log(Level.WARN, template, first, second, null); }
+    public static void warn(String template, Object first, Object second, Object third) { log(Level.WARN, template, first, second, third); }
+
+    public static void info(String template) { log(Level.INFO, template, null, null, null); }
+    public static void info(String template, Object first) { log(Level.INFO, template, first, null, null); }
+    public static void info(String template, Object first, Object second) { log(Level.INFO, template, first, second, null); }
+    public static void info(String template, Object first, Object second, Object third) { log(Level.INFO, template, first, second, third); }
+
+    public static void debug(String template) { log(Level.DEBUG, template, null, null, null); }
+    public static void debug(String template, Object first) { log(Level.DEBUG, template, first, null, null); }
+    public static void debug(String template, Object first, Object second) { log(Level.DEBUG, template, first, second, null); }
+    public static void debug(String template, Object first, Object second, Object third) { log(Level.DEBUG, template, first, second, third); }
+
+    public static void trace(String template) { log(Level.TRACE, template, null, null, null); }
+    public static void trace(String template, Object first) { log(Level.TRACE, template, first, null, null); }
+    public static void trace(String template, Object first, Object second) { log(Level.TRACE, template, first, second, null); }
+    public static void trace(String template, Object first, Object second, Object third) { log(Level.TRACE, template, first, second, third); }
+
+    /**
+     * Puts a message in the ring, dropping it if the ring is full. Arguments are formatted later on
+     * the writer thread, so they must not change after being logged
+     *
+     * @param level level of the message
+     * @param template message with {} for each argument
+     * @param first first argument, null if none
+     * @param second second argument, null if none
+     * @param third third argument, null if none
+     */
+    public static void log(Level level, String template, Object first, Object second, Object third) {
+        if (!isEnabled(level)) {
+            return;
+        }
+
+        long sequence = tail.get();
+        Entry entry;
+        while (true) {
+            entry = RING[(int) sequence & (CAPACITY - 1)];
+            long difference = entry.sequence - sequence;
+            if (difference == 0) {
+                if (tail.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+                sequence = tail.get();
+            } else if (difference < 0) {
+                // The writer has not freed this slot yet, so the ring is full
+                dropped.increment();
+                return;
+            } else {
+                sequence = tail.get();
+            }
+        }
+
+        entry.level = level;
+        entry.time = System.currentTimeMillis();
+        entry.thread = Thread.currentThread().getName();
+        entry.template = template;
+        entry.first = first;
+        entry.second = second;
+        entry.third = third;
+        entry.sequence = sequence + 1;
+
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /** Writes messages as they arrive, parking while the ring is empty */
+    private static void writeForever() {
+        while (true) {
+            drain();
+            sleeping = true;
+            // Check again after announcing the park, so a message logged in between is not missed
+            if (!hasMessage()) {
+                LockSupport.park();
+            }
+            sleeping = false;
+        }
+    }
+
+    /**
+     * Checks if the next slot to be written holds a message
+     *
+     * @return boolean
+     */
+    private static boolean hasMessage() {
+        synchronized (writerLock) {
+            return RING[(int) head & (CAPACITY - 1)].sequence == head + 1;
+        }
+    }
+
+    /** Writes every message in the ring, then flushes the console */
+    private static void drain() {
+        synchronized (writerLock) {
+            StringBuilder line = new StringBuilder(256);
+            try {
+                boolean wroteOut = false;
+                boolean wroteErr = false;
+                while (true) {
+                    Entry entry = RING[(int) head & (CAPACITY - 1)];
+                    if (entry.sequence != head + 1) {
+                        break;
+                    }
+
+                    line.setLength(0);
+                    format(line, entry);
+                    boolean severe = entry.level.compareTo(Level.WARN) <= 0;
+                    entry.thread = null;
+                    entry.template = null;
+                    entry.first = null;
+                    entry.second = null;
+                    entry.third = null;
+                    entry.sequence = head + CAPACITY;
+                    head++;
+
+                    if (severe) {
+                        err.append(line);
+                        wroteErr = true;
+                    } else {
+                        out.append(line);
+                        wroteOut = true;
+                    }
+                }
+
+                long lost = dropped.sumThenReset();
+                if (lost > 0) {
+                    err.append(Instant.now().toString()).append(" WARN  [log-writer] ")
+                            .append(String.valueOf(lost)).append(" log messages dropped, the buffer was full")
+                            .append(System.lineSeparator());
+                    wroteErr = true;
+                }
+                if (wroteOut) {
+                    out.flush();
+                }
+                if (wroteErr) {
+                    err.flush();
+                }
+            } catch (IOException e) {
+                // Nowhere left to report it
+            }
+        }
+    }
+
+    /**
+     * Formats a message as "time LEVEL [thread] message"
+     *
+     * @param line builder to append to
+     * @param entry slot holding the message
+     */
+    private static void format(StringBuilder line, Entry entry) {
+        line.append(Instant.ofEpochMilli(entry.time)).append(' ').append(entry.level.name());
+        for (int i = entry.level.name().length(); i < 6; i++) {
+            line.append(' ');
+        }
+        line.append('[').append(entry.thread).append("] ");
+
+        String template = entry.template;
+        Object[] arguments = {entry.first, entry.second, entry.third};
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while (argument < arguments.length && (placeholder = template.indexOf("{}", start)) >= 0) {
+            line.append(template, start, placeholder).append(arguments[argument++]);
+            start = placeholder + 2;
+        }
+        line.append(template, start, template.length()).append(System.lineSeparator());
+
+        // An exception left over after every {} is filled is written with its stack trace
+        while (argument < arguments.length && arguments[argument] == null) {
+            argument++;
+        }
+        if (argument < arguments.length && arguments[argument] instanceof Throwable) {
+            StringWriter trace = new StringWriter();
+            ((Throwable) arguments[argument]).printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+    }
+}
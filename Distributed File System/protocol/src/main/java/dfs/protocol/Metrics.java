@@ -0,0 +1,87 @@
+package dfs.protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms of a Controller or DStore, looked up by name. Names are
+ * dotted, with the port of a DStore as one part when the value is kept per DStore. All values are
+ * rendered in name order as one line of space separated name=value fields, which is the reply to
+ * STATS
+ */
+public class Metrics {
+
+    /** Name -> counter */
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    /** Name -> gauge, read when rendered */
+    private final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    /** Name -> histogram */
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gets a counter, creating it at 0 if it does not exist
+     *
+     * @param name name of counter
+     * @return counter
+     */
+    public LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Adds 1 to a counter
+     *
+     * @param name name of counter
+     */
+    public void increment(String name) {
+        counter(name).increment();
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge of the same name
+     *
+     * @param name name of gauge
+     * @param value read whenever the metrics are rendered
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Gets a histogram, creating it empty if it does not exist
+     *
+     * @param name name of histogram
+     * @return histogram
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Removes a gauge, such as one reading a DStore which has left
+     *
+     * @param name name of gauge
+     */
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Renders every value as a STATS reply
+     *
+     * @return STATS followed by name=value fields
+     */
+    public String render() {
+        StringBuilder stats = new StringBuilder(Protocol.STATS_TOKEN);
+        counters.forEach((name, counter) -> stats.append(' ').append(name).append('=').append(counter.sum()));
+        gauges.forEach((name, gauge) -> stats.append(' ').append(name).append('=').append(gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> histogram.appendTo(stats, name));
+        return stats.toString();
+    }
+}
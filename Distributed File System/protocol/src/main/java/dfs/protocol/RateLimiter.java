@@ -0,0 +1,54 @@
+package dfs.protocol;
+
+/**
+ * Limits the rate of bytes sent by every transfer sharing it. Each transfer reserves time for the
+ * bytes it has just sent and sleeps until the reservation of all earlier bytes has passed
+ */
+public class RateLimiter {
+
+    /** Bytes allowed per second, 0 for no limit */
+    private final long bytesPerSecond;
+
+    /** System.nanoTime() after which the next bytes may be sent */
+    private long nextFreeTime = System.nanoTime();
+
+    /**
+     * Creates a limiter
+     *
+     * @param bytesPerSecond bytes allowed per second, 0 for no limit
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Checks if the limiter limits anything
+     *
+     * @return boolean
+     */
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * Accounts for bytes which have been sent, waiting until sending them fits in the rate
+     *
+     * @param bytes amount of bytes sent
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        if (!isLimited()) {
+            return;
+        }
+
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextFreeTime = Math.max(nextFreeTime, now) + bytes * 1_000_000_000L / bytesPerSecond;
+            wait = nextFreeTime - now;
+        }
+        if (wait > 0) {
+            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+        }
+    }
+}
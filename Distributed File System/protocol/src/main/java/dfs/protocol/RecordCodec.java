@@ -0,0 +1,55 @@
+package dfs.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes records of the append-only files kept on disk as checksummed lines, so a record torn by
+ * a crash can be told apart from a complete one
+ */
+public class RecordCodec {
+
+    private RecordCodec() {}
+
+    /**
+     * Prefixes a record with its checksum and terminates it
+     *
+     * @param record record, without line terminators
+     * @return line to write
+     */
+    public static String encode(String record) {
+        return Long.toHexString(checksum(record)) + " " + record + "\n";
+    }
+
+    /**
+     * Checks the checksum of a line and strips it
+     *
+     * @param line line without its terminator
+     * @return record, or null if the line is damaged
+     */
+    public static String decode(String line) {
+        int separator = line.indexOf(' ');
+        if (separator <= 0) {
+            return null;
+        }
+
+        String record = line.substring(separator + 1);
+        try {
+            return Long.parseLong(line.substring(0, separator), 16) == checksum(record) ? record : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the checksum of a record
+     *
+     * @param record record
+     * @return CRC32 of the record
+     */
+    private static long checksum(String record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,241 @@
+package dfs.protocol;
+
+import java.util.Arrays;
+
+/**
+ * A message received by the Controller, split into its fields once when it is framed so handlers
+ * never parse it again. Text messages are split on spaces, binary frames arrive already split. A
+ * text message starting with "#ID " carries a request ID, which its reply starts with too
+ */
+public class Request {
+
+    /** Fields of a message with no fields */
+    private static final String[] NO_FIELDS = new String[0];
+
+    /** ID the reply has to carry, 0 if the client did not give one */
+    private final int id;
+
+    /** Command followed by its arguments */
+    private final String[] fields;
+
+    /** Original text message, null if the message was a binary frame */
+    private final String line;
+
+    /** System.nanoTime() when the message was framed, so time spent queued counts towards its latency */
+    private final long receivedTime = System.nanoTime();
+
+    /**
+     * Creates a request
+     *
+     * @param id ID the reply has to carry, 0 if none
+     * @param fields command followed by its arguments
+     * @param line original text message, null for binary frames
+     */
+    public Request(int id, String[] fields, String line) {
+        this.id = id;
+        this.fields = fields;
+        this.line = line;
+    }
+
+    /**
+     * Parses a text message, splitting it on spaces without regular expressions. The only
+     * allocations are the fields and the array holding them, sized exactly
+     *
+     * @param line message without its line terminator
+     * @return request
+     */
+    public static Request parse(String line) {
+        int length = line.length();
+        int start = 0;
+        while (start < length && line.charAt(start) == ' ') {
+            start++;
+        }
+        int end = line.indexOf(' ', start);
+
+        // An ID is only an ID if a command follows it
+        int id = end < 0 ? 0 : parseId(line, start, end);
+        if (id == 0 || countFields(line, end) == 0) {
+            return new Request(0, split(line, 0), line);
+        }
+        return new Request(id, split(line, end), line);
+    }
+
+    /**
+     * Parses the request ID prefix of a text message
+     *
+     * @param line message
+     * @param start index of the first character of the first field
+     * @param end index after the last character of the first field
+     * @return ID, 0 if the field is not a positive ID
+     */
+    private static int parseId(String line, int start, int end) {
+        if (end - start < 2 || end - start > 11 || line.charAt(start) != '#') {
+            return 0;
+        }
+        int id = 0;
+        for (int i = start + 1; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9' || id > (Integer.MAX_VALUE - (c - '0')) / 10) {
+                return 0;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
+    /**
+     * Adds the request ID to a text reply
+     *
+     * @param message reply
+     * @return reply starting with the ID, unchanged if the request has none
+     */
+    public String tagReply(String message) {
+        return id == 0 ? message : "#" + id + " " + message;
+    }
+
+    /**
+     * Splits a text message on spaces, skipping empty fields
+     *
+     * @param line message
+     * @return fields
+     */
+    public static String[] split(String line) {
+        return split(line, 0);
+    }
+
+    /**
+     * Splits the end of a text message on spaces, skipping empty fields. The fields are counted
+     * first, so they go straight into an array of the right size
+     *
+     * @param line message
+     * @param from index to start from
+     * @return fields
+     */
+    private static String[] split(String line, int from) {
+        int count = countFields(line, from);
+        if (count == 0) {
+            return NO_FIELDS;
+        }
+
+        String[] fields = new String[count];
+        int field = 0;
+        int length = line.length();
+        for (int start = from; start < length; ) {
+            int end = line.indexOf(' ', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                fields[field++] = line.substring(start, end);
+            }
+            start = end + 1;
+        }
+        return fields;
+    }
+
+    /**
+     * Counts the fields of the end of a text message
+     *
+     * @param line message
+     * @param from index to start from
+     * @return amount of fields
+     */
+    private static int countFields(String line, int from) {
+        int count = 0;
+        int length = line.length();
+        for (int start = from; start < length; ) {
+            int end = line.indexOf(' ', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                count++;
+            }
+            start = end + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the ID the reply has to carry
+     *
+     * @return ID, 0 if the client did not give one
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the command of the message
+     *
+     * @return command, empty if the message is empty
+     */
+    public String getCommand() {
+        return fields.length == 0 ? "" : fields[0];
+    }
+
+    /**
+     * Gets a field of the message, the command being field 0
+     *
+     * @param index index of the field
+     * @return field
+     * @throws ArrayIndexOutOfBoundsException if the message is too short
+     */
+    public String getField(int index) {
+        return fields[index];
+    }
+
+    /**
+     * Checks every argument could have been sent as a field of a text message: not empty and
+     * without spaces or line breaks. Binary frames can carry any argument, and a filename breaking
+     * these rules would corrupt the messages the Controller and DStores send each other
+     *
+     * @return whether every argument is a valid field
+     */
+    public boolean hasValidArguments() {
+        for (int i = 1; i < fields.length; i++) {
+            String field = fields[i];
+            if (field.isEmpty() || field.indexOf(' ') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the amount of fields, including the command
+     *
+     * @return amount of fields
+     */
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    /**
+     * Gets the time the message was framed
+     *
+     * @return System.nanoTime() when the message was framed
+     */
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+
+    /**
+     * Gets the original text message
+     *
+     * @return message, null if the message was a binary frame
+     */
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * Gets the message as text, for logging
+     *
+     * @return message
+     */
+    @Override
+    public String toString() {
+        return line != null ? line : String.join(" ", Arrays.asList(fields));
+    }
+}
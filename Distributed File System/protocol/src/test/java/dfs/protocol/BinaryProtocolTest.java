@@ -0,0 +1,162 @@
+package dfs.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class BinaryProtocolTest {
+
+    @Test
+    void decodesWhatItEncodes() throws ProtocolException {
+        ByteBuffer frame = BinaryProtocol.encode(7, " STORE  café.txt 12 ");
+        int length = frame.getInt();
+        assertEquals(frame.remaining(), length);
+
+        Request request = BinaryProtocol.decode(frame, length);
+        assertEquals(7, request.getId());
+        assertEquals(Protocol.STORE_TOKEN, request.getCommand());
+        assertEquals(3, request.getFieldCount());
+        assertEquals("café.txt", request.getField(1));
+        assertEquals("12", request.getField(2));
+        assertEquals(0, frame.remaining());
+    }
+
+    @Test
+    void readsFramesFromStream() throws IOException {
+        ByteBuffer first = BinaryProtocol.encode(1, Protocol.LIST_TOKEN);
+        ByteBuffer second = BinaryProtocol.encode(2, Protocol.REMOVE_COMPLETE_TOKEN);
+        byte[] bytes = new byte[first.remaining() + second.remaining()];
+        first.get(bytes, 0, first.remaining());
+        second.get(bytes, bytes.length - second.remaining(), second.remaining());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        assertEquals(Protocol.LIST_TOKEN, BinaryProtocol.read(in).getCommand());
+        assertEquals(2, BinaryProtocol.read(in).getId());
+        assertNull(BinaryProtocol.read(in));
+    }
+
+    @Test
+    void rejectsMessagesWithoutOpcode() {
+        assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.encode(1, "UNKNOWN a"));
+        assertThrows(IllegalArgumentException.class, () -> BinaryProtocol.encode(1, "  "));
+        char[] longArgument = new char[0x10000];
+        Arrays.fill(longArgument, 'a');
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryProtocol.encode(1, "LOAD " + new String(longArgument)));
+    }
+
+    @Test
+    void flagsArgumentsTextCannotCarry() throws ProtocolException {
+        assertTrue(decode(frame(STORE)).hasValidArguments());
+
+        // "a.txt" becomes "a txt"
+        byte[] spaced = frame(STORE);
+        spaced[16] = ' ';
+        Request request = decode(spaced);
+        assertEquals("a txt", request.getField(1));
+        assertFalse(request.hasValidArguments());
+
+        // LOAD with one empty argument
+        byte[] load = frame(Protocol.LOAD_TOKEN + " a");
+        ByteBuffer empty = ByteBuffer.allocate(load.length - 1)
+                .putInt(load.length - 1 - BinaryProtocol.LENGTH_SIZE).put(load[4]).putInt(3).putInt(1).putShort((short) 0);
+        request = decode(empty.array());
+        assertEquals("", request.getField(1));
+        assertFalse(request.hasValidArguments());
+    }
+
+    @Test
+    void rejectsUnknownOpcode() {
+        byte[] frame = frame(STORE);
+        frame[4] = (byte) 0xFF;
+        assertMalformed(frame, "Unknown opcode");
+    }
+
+    @Test
+    void rejectsBadArgumentCount() {
+        byte[] frame = frame(STORE);
+        ByteBuffer.wrap(frame).putInt(9, -1);
+        assertMalformed(frame, "amount of arguments");
+        ByteBuffer.wrap(frame).putInt(9, 3);
+        assertMalformed(frame, "Malformed frame");
+    }
+
+    @Test
+    void rejectsArgumentPastEnd() {
+        byte[] frame = frame(STORE);
+        ByteBuffer.wrap(frame).putShort(13, (short) 0xFFFF);
+        assertMalformed(frame, "past the end");
+    }
+
+    @Test
+    void rejectsLengthNotMatchingContent() {
+        byte[] frame = Arrays.copyOf(frame(STORE), frame(STORE).length + 1);
+        ByteBuffer.wrap(frame).putInt(0, frame.length - BinaryProtocol.LENGTH_SIZE);
+        assertMalformed(frame, "does not match");
+    }
+
+    @Test
+    void rejectsTruncatedFrame() {
+        assertMalformed(Arrays.copyOf(frame(STORE), 7), "Malformed frame");
+    }
+
+    @Test
+    void readRejectsBadLength() {
+        for (int length : new int[] {-1, BinaryProtocol.MAX_FRAME_LENGTH + 1}) {
+            byte[] prefix = ByteBuffer.allocate(4).putInt(length).array();
+            assertThrows(ProtocolException.class,
+                    () -> BinaryProtocol.read(new DataInputStream(new ByteArrayInputStream(prefix))));
+        }
+    }
+
+    /** A message with two arguments */
+    private static final String STORE = "STORE a.txt 12";
+
+    /**
+     * Encodes a message
+     *
+     * @param message message
+     * @return frame, including its length prefix
+     */
+    private static byte[] frame(String message) {
+        ByteBuffer frame = BinaryProtocol.encode(3, message);
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Decodes a frame
+     *
+     * @param frame frame, including its length prefix
+     * @return request
+     * @throws ProtocolException if the frame is malformed
+     */
+    private static Request decode(byte[] frame) throws ProtocolException {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        return BinaryProtocol.decode(buffer, buffer.getInt());
+    }
+
+    /**
+     * Checks decoding a frame fails
+     *
+     * @param frame frame, including its length prefix, which may not match it
+     * @param reason text the error message has to contain
+     */
+    private static void assertMalformed(byte[] frame, String reason) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        int length = Math.min(buffer.getInt(), buffer.remaining());
+        ProtocolException e = assertThrows(ProtocolException.class, () -> BinaryProtocol.decode(buffer, length));
+        assertEquals(true, e.getMessage().contains(reason), e.getMessage());
+    }
+}
@@ -0,0 +1,62 @@
+package dfs.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getPercentile(1));
+    }
+
+    @Test
+    void smallValuesHaveBucketsOfTheirOwn() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 31; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(31, histogram.getCount());
+        assertEquals(16, histogram.getPercentile(0.5));
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(31, histogram.getPercentile(1));
+    }
+
+    @Test
+    void largeValuesAreWithinASixteenth() {
+        for (long micros = 32; micros < (1L << 37); micros = micros * 3 + 1) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(micros * 1000);
+            histogram.record(micros * 4000);
+
+            long median = histogram.getPercentile(0.5);
+            assertTrue(median >= micros && median <= micros + micros / 16, micros + " reported as " + median);
+            assertEquals(micros * 4, histogram.getPercentile(1));
+        }
+    }
+
+    @Test
+    void valuesOutOfRangeAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5000);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals((1L << 40) - 1, histogram.getPercentile(1));
+    }
+
+    @Test
+    void statsListEveryField() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10_000);
+        histogram.record(30_000);
+        StringBuilder stats = new StringBuilder();
+        histogram.appendTo(stats, "store");
+        assertEquals(" store.count=2 store.mean_us=20 store.p50_us=10 store.p99_us=30 store.p999_us=30 store.max_us=30",
+                stats.toString());
+    }
+}
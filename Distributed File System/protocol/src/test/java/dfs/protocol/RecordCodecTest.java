@@ -0,0 +1,39 @@
+package dfs.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class RecordCodecTest {
+
+    @Test
+    void decodesWhatItEncodes() {
+        for (String record : new String[] {"", "STORE a.txt 12", "  spaced  out ", "café 日本"}) {
+            String line = RecordCodec.encode(record);
+            assertEquals('\n', line.charAt(line.length() - 1));
+            assertEquals(record, RecordCodec.decode(line.substring(0, line.length() - 1)));
+        }
+    }
+
+    @Test
+    void rejectsChangedRecord() {
+        String line = RecordCodec.encode("STORE a.txt 12").trim();
+        assertNull(RecordCodec.decode(line.replace("12", "13")));
+    }
+
+    @Test
+    void rejectsTornRecord() {
+        String line = RecordCodec.encode("STORE a.txt 12").trim();
+        for (int length = 0; length < line.length(); length++) {
+            assertNull(RecordCodec.decode(line.substring(0, length)), "torn after " + length);
+        }
+    }
+
+    @Test
+    void rejectsMalformedChecksum() {
+        assertNull(RecordCodec.decode("STORE a.txt 12"));
+        assertNull(RecordCodec.decode(" STORE a.txt 12"));
+        assertNull(RecordCodec.decode("zz STORE"));
+    }
+}
@@ -0,0 +1,72 @@
+package dfs.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class RequestTest {
+
+    @Test
+    void splitsOnSpaces() {
+        Request request = Request.parse("  STORE  a.txt 12 ");
+        assertEquals(0, request.getId());
+        assertEquals(Protocol.STORE_TOKEN, request.getCommand());
+        assertEquals(3, request.getFieldCount());
+        assertEquals("a.txt", request.getField(1));
+        assertEquals("12", request.getField(2));
+        assertEquals("  STORE  a.txt 12 ", request.getLine());
+    }
+
+    @Test
+    void emptyMessageHasNoFields() {
+        assertEquals(0, Request.parse("").getFieldCount());
+        assertEquals(0, Request.parse("   ").getFieldCount());
+    }
+
+    @Test
+    void takesIdPrefix() {
+        Request request = Request.parse("#42 LOAD a.txt");
+        assertEquals(42, request.getId());
+        assertEquals(Protocol.LOAD_TOKEN, request.getCommand());
+        assertEquals(2, request.getFieldCount());
+        assertEquals("#42 LOAD_FROM 1 12", request.tagReply("LOAD_FROM 1 12"));
+
+        assertEquals(Integer.MAX_VALUE, Request.parse(" #2147483647  LIST").getId());
+    }
+
+    @Test
+    void idWithoutCommandIsCommand() {
+        assertIsCommand("#42", "#42");
+        assertIsCommand("#42 ", "#42");
+        assertIsCommand("#42   ", "#42");
+    }
+
+    @Test
+    void malformedIdsAreCommands() {
+        assertIsCommand("# LIST", "#", "LIST");
+        assertIsCommand("#0 LIST", "#0", "LIST");
+        assertIsCommand("#-1 LIST", "#-1", "LIST");
+        assertIsCommand("#4x LIST", "#4x", "LIST");
+        assertIsCommand("#2147483648 LIST", "#2147483648", "LIST");
+        assertIsCommand("#99999999999 LIST", "#99999999999", "LIST");
+        assertIsCommand("42 LIST", "42", "LIST");
+    }
+
+    /**
+     * Checks a message carries no ID and is split into the fields given
+     *
+     * @param line message
+     * @param fields expected fields
+     */
+    private static void assertIsCommand(String line, String... fields) {
+        Request request = Request.parse(line);
+        assertEquals(0, request.getId(), line);
+        assertArrayEquals(fields, Request.split(line), line);
+        assertEquals(fields.length, request.getFieldCount(), line);
+        for (int i = 0; i < fields.length; i++) {
+            assertEquals(fields[i], request.getField(i), line);
+        }
+        assertEquals(request.tagReply("LIST"), "LIST");
+    }
+}